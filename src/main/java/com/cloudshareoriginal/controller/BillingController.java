@@ -4,7 +4,7 @@ import com.cloudshareoriginal.dto.EntityResponse;
 import com.cloudshareoriginal.dto.billing.SubscriptionRequest;
 import com.cloudshareoriginal.dto.billing.SubscriptionResponse;
 import com.cloudshareoriginal.model.User;
-import com.cloudshareoriginal.repository.UserRepository;
+import com.cloudshareoriginal.security.CurrentUser;
 import com.cloudshareoriginal.service.QuotaService;
 import com.cloudshareoriginal.service.RazorpayService;
 import com.cloudshareoriginal.dto.files.QuotaResponse;
@@ -18,8 +18,6 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.Instant;
@@ -32,7 +30,7 @@ import java.util.Map;
 public class BillingController {
 
     private final RazorpayService razorpayService;
-    private final UserRepository userRepository;
+    private final CurrentUser currentUser;
     private final QuotaService quotaService;
 
     @Value("${app.subscription.file-limit:100}")
@@ -46,9 +44,7 @@ public class BillingController {
 
     @PostMapping("/payment/order")
     public ResponseEntity<EntityResponse<PaymentOrderResponse>> createPaymentOrder(HttpServletRequest http) throws Exception {
-        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-        String email = auth.getName();
-        User user = userRepository.findByEmail(email).orElseThrow();
+        User user = currentUser.reference(); // only the id is read; no lookup
 
         int amountInPaise = subscriptionPriceInr * 100;
 
@@ -72,9 +68,8 @@ public class BillingController {
 
     @PostMapping("/payment/link")
     public ResponseEntity<EntityResponse<PaymentLinkResponse>> createPaymentLink(HttpServletRequest http) throws Exception {
-        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-        String email = auth.getName();
-        User user = userRepository.findByEmail(email).orElseThrow();
+        String email = currentUser.principal().email();
+        User user = currentUser.reference();
 
         int amountInPaise = subscriptionPriceInr * 100;
         String reference = "ref_" + user.getId() + "_" + System.currentTimeMillis();
@@ -109,9 +104,7 @@ public class BillingController {
     @PostMapping("/payment/verify")
     public ResponseEntity<EntityResponse<String>> verifyPayment(@Valid @RequestBody PaymentVerifyRequest request,
                                                                 HttpServletRequest http) {
-        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-        String email = auth.getName();
-        User user = userRepository.findByEmail(email).orElseThrow();
+        User user = currentUser.reference(); // only the id is read; no lookup
 
         boolean ok = razorpayService.verifyPaymentSignature(request.getOrderId(), request.getPaymentId(), request.getSignature());
         if (!ok) {
@@ -139,17 +132,21 @@ public class BillingController {
 
     @GetMapping("/status")
     public ResponseEntity<EntityResponse<QuotaResponse>> status(HttpServletRequest http) {
-        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-        String email = auth.getName();
-        User user = userRepository.findByEmail(email).orElseThrow();
+        User user = currentUser.reference(); // only the id is read; no lookup
         var q = quotaService.getOrCreate(user);
-        int remaining = Math.max(0, q.getLimitFiles() - q.getUsedFiles());
+        int used = q.getUsedFiles() + q.getReservedFiles();
+        long usedBytes = q.getUsedBytes() + q.getReservedBytes();
         boolean subscribed = "active".equalsIgnoreCase(q.getSubscriptionStatus());
 
         QuotaResponse data = QuotaResponse.builder()
-                .used(q.getUsedFiles())
+                .used(used)
+                .reserved(q.getReservedFiles())
                 .limit(q.getLimitFiles())
-                .remaining(remaining)
+                .remaining(Math.max(0, q.getLimitFiles() - used))
+                .usedBytes(usedBytes)
+                .reservedBytes(q.getReservedBytes())
+                .limitBytes(q.getLimitBytes())
+                .remainingBytes(Math.max(0, q.getLimitBytes() - usedBytes))
                 .plan(q.getSubscriptionStatus())
                 .build();
 
@@ -4,18 +4,42 @@ import com.cloudshareoriginal.dto.EntityResponse;
 import com.cloudshareoriginal.dto.files.*;
 import com.cloudshareoriginal.model.FileItem;
 import com.cloudshareoriginal.model.FileShare;
+import com.cloudshareoriginal.repository.FileSummaryRow;
+import com.cloudshareoriginal.service.ArchiveService;
+import com.cloudshareoriginal.service.DownloadCounterService;
 import com.cloudshareoriginal.service.FileService;
+import com.cloudshareoriginal.service.PresignedUrlService;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.apache.commons.fileupload2.core.DiskFileItem;
+import org.apache.commons.fileupload2.core.DiskFileItemFactory;
+import org.apache.commons.fileupload2.core.FileItemInput;
+import org.apache.commons.fileupload2.core.FileItemInputIterator;
+import org.apache.commons.fileupload2.core.FileUploadException;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletFileUpload;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api/files")
@@ -23,6 +47,9 @@ import java.util.List;
 public class FileController {
 
     private final FileService fileService;
+    private final PresignedUrlService presignedUrlService;
+    private final ArchiveService archiveService;
+    private final DownloadCounterService downloadCounterService;
 
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<EntityResponse<UploadResponse>> uploadFile(
@@ -51,7 +78,7 @@ public class FileController {
                 .contentType(uploaded.getContentType())
                 .size(uploaded.getSize())
                 .visibility(uploaded.getVisibility().name())
-                .fileUrl(uploaded.getS3Key())
+                .fileUrl(presignedUrlService.inline(uploaded.getS3Key()))
                 .build();
 
         EntityResponse<UploadResponse> body = EntityResponse.<UploadResponse>builder()
@@ -64,12 +91,255 @@ public class FileController {
         return ResponseEntity.ok(body);
     }
 
+    @PostMapping(value = "/upload-batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<EntityResponse<BatchUploadResponse>> uploadBatch(
+            @RequestParam("files") List<MultipartFile> files,
+            HttpServletRequest http) {
+        try {
+            List<BatchUploadResponse.Item> items = fileService.uploadBatch(files).stream()
+                    .map(r -> BatchUploadResponse.Item.builder()
+                            .name(r.getName())
+                            .success(r.getFile() != null)
+                            .error(r.getError())
+                            .file(r.getFile() != null ? toUpload(r.getFile()) : null)
+                            .build())
+                    .toList();
+            int uploaded = (int) items.stream().filter(BatchUploadResponse.Item::isSuccess).count();
+            BatchUploadResponse data = BatchUploadResponse.builder()
+                    .uploaded(uploaded)
+                    .failed(items.size() - uploaded)
+                    .items(items)
+                    .build();
+            EntityResponse<BatchUploadResponse> body = EntityResponse.<BatchUploadResponse>builder()
+                    .success(uploaded == items.size())
+                    .message(uploaded + " of " + items.size() + " files uploaded")
+                    .data(data)
+                    .timestamp(Instant.now())
+                    .path(http.getRequestURI())
+                    .build();
+            return ResponseEntity.ok(body);
+        } catch (IllegalArgumentException ex) {
+            EntityResponse<BatchUploadResponse> body = EntityResponse.<BatchUploadResponse>builder()
+                    .success(false)
+                    .message(ex.getMessage())
+                    .timestamp(Instant.now())
+                    .path(http.getRequestURI())
+                    .build();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(body);
+        }
+    }
+
+    // Same contract as /upload, but the multipart body is parsed as it arrives and the
+    // file part is piped straight to S3 instead of being spooled to a temp file first
+    @PostMapping(value = "/upload-stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<EntityResponse<UploadResponse>> uploadStream(HttpServletRequest http) throws IOException {
+        JakartaServletFileUpload<DiskFileItem, DiskFileItemFactory> upload = new JakartaServletFileUpload<>();
+        try {
+            FileItemInputIterator parts = upload.getItemIterator(http);
+            while (parts.hasNext()) {
+                FileItemInput part = parts.next();
+                if (part.isFormField() || !"file".equals(part.getFieldName())) {
+                    continue;
+                }
+                FileItem uploaded;
+                try (InputStream in = part.getInputStream()) {
+                    uploaded = fileService.uploadStream(part.getName(), part.getContentType(), in);
+                }
+                EntityResponse<UploadResponse> body = EntityResponse.<UploadResponse>builder()
+                        .success(true)
+                        .message("File uploaded")
+                        .data(toUpload(uploaded))
+                        .timestamp(Instant.now())
+                        .path(http.getRequestURI())
+                        .build();
+                return ResponseEntity.ok(body);
+            }
+        } catch (FileUploadException ex) {
+            EntityResponse<UploadResponse> body = EntityResponse.<UploadResponse>builder()
+                    .success(false)
+                    .message("Malformed multipart body: " + ex.getMessage())
+                    .timestamp(Instant.now())
+                    .path(http.getRequestURI())
+                    .build();
+            return ResponseEntity.badRequest().body(body);
+        }
+        EntityResponse<UploadResponse> body = EntityResponse.<UploadResponse>builder()
+                .success(false)
+                .message("Missing multipart part 'file'")
+                .timestamp(Instant.now())
+                .path(http.getRequestURI())
+                .build();
+        return ResponseEntity.badRequest().body(body);
+    }
+
+    @PostMapping(value = "/upload-init", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<EntityResponse<UploadInitResponse>> uploadInit(@Valid @RequestBody UploadInitRequest req,
+                                                                         HttpServletRequest http) {
+        try {
+            UploadInitResponse data = fileService.initUpload(req);
+            EntityResponse<UploadInitResponse> body = EntityResponse.<UploadInitResponse>builder()
+                    .success(true)
+                    .message("Upload URLs generated. PUT each file to its uploadUrl, then call upload-complete.")
+                    .data(data)
+                    .timestamp(Instant.now())
+                    .path(http.getRequestURI())
+                    .build();
+            return ResponseEntity.ok(body);
+        } catch (IllegalArgumentException ex) {
+            EntityResponse<UploadInitResponse> body = EntityResponse.<UploadInitResponse>builder()
+                    .success(false)
+                    .message(ex.getMessage())
+                    .timestamp(Instant.now())
+                    .path(http.getRequestURI())
+                    .build();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(body);
+        }
+    }
+
+    @PostMapping(value = "/upload-complete", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<EntityResponse<UploadCompleteResponse>> uploadComplete(@Valid @RequestBody UploadCompleteRequest req,
+                                                                                 HttpServletRequest http) {
+        try {
+            UploadCompleteResponse data = fileService.completeUpload(req);
+            boolean allDone = data.getFiles().size() == req.getItems().size();
+            EntityResponse<UploadCompleteResponse> body = EntityResponse.<UploadCompleteResponse>builder()
+                    .success(allDone)
+                    .message(allDone ? "Upload complete" : "Some files were not found in storage and were discarded")
+                    .data(data)
+                    .timestamp(Instant.now())
+                    .path(http.getRequestURI())
+                    .build();
+            return ResponseEntity.ok(body);
+        } catch (IllegalArgumentException ex) {
+            EntityResponse<UploadCompleteResponse> body = EntityResponse.<UploadCompleteResponse>builder()
+                    .success(false)
+                    .message(ex.getMessage())
+                    .timestamp(Instant.now())
+                    .path(http.getRequestURI())
+                    .build();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(body);
+        } catch (SdkException ex) {
+            // Nothing was changed; the same request can be sent again
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Could not check storage, try again: " + ex.getMessage());
+        }
+    }
+
+    @PostMapping(value = "/upload-instant", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<EntityResponse<UploadResponse>> uploadInstant(@Valid @RequestBody InstantUploadRequest req,
+                                                                        HttpServletRequest http) {
+        try {
+            Optional<FileItem> uploaded = fileService.instantUpload(req);
+            if (uploaded.isEmpty()) {
+                EntityResponse<UploadResponse> body = EntityResponse.<UploadResponse>builder()
+                        .success(false)
+                        .message("Content not stored yet. Upload the file normally.")
+                        .timestamp(Instant.now())
+                        .path(http.getRequestURI())
+                        .build();
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(body);
+            }
+            EntityResponse<UploadResponse> body = EntityResponse.<UploadResponse>builder()
+                    .success(true)
+                    .message("File uploaded")
+                    .data(toUpload(uploaded.get()))
+                    .timestamp(Instant.now())
+                    .path(http.getRequestURI())
+                    .build();
+            return ResponseEntity.ok(body);
+        } catch (IllegalArgumentException ex) {
+            EntityResponse<UploadResponse> body = EntityResponse.<UploadResponse>builder()
+                    .success(false)
+                    .message(ex.getMessage())
+                    .timestamp(Instant.now())
+                    .path(http.getRequestURI())
+                    .build();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(body);
+        }
+    }
+
+    @PostMapping(value = "/resumable", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<EntityResponse<ResumableUploadResponse>> createResumable(@Valid @RequestBody ResumableUploadRequest req,
+                                                                                   HttpServletRequest http) {
+        try {
+            ResumableUploadResponse data = fileService.createResumableUpload(req);
+            return ResponseEntity.status(HttpStatus.CREATED).body(resumableBody(data, "Upload session created", http));
+        } catch (IllegalArgumentException ex) {
+            EntityResponse<ResumableUploadResponse> body = EntityResponse.<ResumableUploadResponse>builder()
+                    .success(false)
+                    .message(ex.getMessage())
+                    .timestamp(Instant.now())
+                    .path(http.getRequestURI())
+                    .build();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(body);
+        }
+    }
+
+    @GetMapping("/resumable/{token}")
+    public ResponseEntity<EntityResponse<ResumableUploadResponse>> getResumable(@PathVariable String token,
+                                                                                HttpServletRequest http) {
+        ResumableUploadResponse data = fileService.getResumableUpload(token);
+        return ResponseEntity.ok(resumableBody(data, "Upload session fetched", http));
+    }
+
+    @PutMapping(value = "/resumable/{token}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<EntityResponse<ResumableUploadResponse>> uploadChunk(@PathVariable String token,
+                                                                               @RequestParam("offset") long offset,
+                                                                               HttpServletRequest http) throws IOException {
+        try {
+            ResumableUploadResponse data = fileService.uploadChunk(token, offset, http.getInputStream(), http.getContentLengthLong());
+            return ResponseEntity.ok(resumableBody(data, "Chunk stored", http));
+        } catch (IllegalArgumentException ex) {
+            EntityResponse<ResumableUploadResponse> body = EntityResponse.<ResumableUploadResponse>builder()
+                    .success(false)
+                    .message(ex.getMessage())
+                    .timestamp(Instant.now())
+                    .path(http.getRequestURI())
+                    .build();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(body);
+        }
+    }
+
+    @PostMapping("/resumable/{token}/complete")
+    public ResponseEntity<EntityResponse<UploadResponse>> completeResumable(@PathVariable String token,
+                                                                            HttpServletRequest http) {
+        FileItem uploaded = fileService.completeResumableUpload(token);
+        UploadResponse data = toUpload(uploaded);
+        EntityResponse<UploadResponse> body = EntityResponse.<UploadResponse>builder()
+                .success(true)
+                .message("File uploaded")
+                .data(data)
+                .timestamp(Instant.now())
+                .path(http.getRequestURI())
+                .build();
+        return ResponseEntity.ok(body);
+    }
+
+    @DeleteMapping("/resumable/{token}")
+    public ResponseEntity<Void> abortResumable(@PathVariable String token) {
+        fileService.abortResumableUpload(token);
+        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    }
+
+    private EntityResponse<ResumableUploadResponse> resumableBody(ResumableUploadResponse data, String message,
+                                                                  HttpServletRequest http) {
+        return EntityResponse.<ResumableUploadResponse>builder()
+                .success(true)
+                .message(message)
+                .data(data)
+                .timestamp(Instant.now())
+                .path(http.getRequestURI())
+                .build();
+    }
 
     @GetMapping
-    public ResponseEntity<EntityResponse<List<FileItem>>> list(@RequestParam(value = "visibility", required = false) FileItem.Visibility visibility,
-                                                               HttpServletRequest http) {
-        List<FileItem> data = fileService.list(visibility);
-        EntityResponse<List<FileItem>> body = EntityResponse.<List<FileItem>>builder()
+    public ResponseEntity<EntityResponse<CursorPage<FileSummaryResponse>>> list(@RequestParam(value = "visibility", required = false) FileItem.Visibility visibility,
+                                                                                @RequestParam(value = "cursor", required = false) String cursor,
+                                                                                @RequestParam(value = "limit", defaultValue = "50") int limit,
+                                                                                HttpServletRequest http) {
+        // Summaries rather than entities: the stored object URL is not readable, clients need a signed one
+        CursorPage<FileSummaryResponse> data = withCursor(() -> fileService.list(visibility, cursor, limit))
+                .map(f -> toSummary(f, true));
+        EntityResponse<CursorPage<FileSummaryResponse>> body = EntityResponse.<CursorPage<FileSummaryResponse>>builder()
                 .success(true)
                 .message("Files fetched")
                 .data(data)
@@ -102,6 +372,84 @@ public class FileController {
         return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
     }
 
+    /**
+     * Deletes up to a few thousand of the caller's files in one request. Ids that do not exist or
+     * belong to someone else are listed under notFound; the rest are deleted.
+     */
+    @PostMapping(value = "/delete-batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<EntityResponse<BatchDeleteResponse>> deleteBatch(@Valid @RequestBody BatchDeleteRequest request,
+                                                                           HttpServletRequest http) {
+        BatchDeleteResponse data;
+        try {
+            data = fileService.deleteBatch(request.getIds());
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage());
+        }
+        EntityResponse<BatchDeleteResponse> body = EntityResponse.<BatchDeleteResponse>builder()
+                .success(true)
+                .message(data.getDeleted() + " file(s) deleted")
+                .data(data)
+                .timestamp(Instant.now())
+                .path(http.getRequestURI())
+                .build();
+        return ResponseEntity.ok(body);
+    }
+
+    @GetMapping("/trash")
+    public ResponseEntity<EntityResponse<CursorPage<TrashedFileResponse>>> listTrash(@RequestParam(value = "cursor", required = false) String cursor,
+                                                                                     @RequestParam(value = "limit", defaultValue = "50") int limit,
+                                                                                     HttpServletRequest http) {
+        CursorPage<TrashedFileResponse> data = withCursor(() -> fileService.listTrash(cursor, limit))
+                .map(f -> TrashedFileResponse.builder()
+                        .id(f.id())
+                        .name(f.originalName())
+                        .contentType(f.contentType())
+                        .size(f.size())
+                        .deletedAt(f.deletedAt())
+                        .build());
+        EntityResponse<CursorPage<TrashedFileResponse>> body = EntityResponse.<CursorPage<TrashedFileResponse>>builder()
+                .success(true)
+                .message("Trash fetched")
+                .data(data)
+                .timestamp(Instant.now())
+                .path(http.getRequestURI())
+                .build();
+        return ResponseEntity.ok(body);
+    }
+
+    @PostMapping("/{id}/restore")
+    public ResponseEntity<EntityResponse<String>> restore(@PathVariable Long id, HttpServletRequest http) {
+        try {
+            fileService.restore(id);
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, ex.getMessage());
+        } catch (IllegalStateException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage());
+        }
+        EntityResponse<String> body = EntityResponse.<String>builder()
+                .success(true)
+                .message("File restored")
+                .data("restored")
+                .timestamp(Instant.now())
+                .path(http.getRequestURI())
+                .build();
+        return ResponseEntity.ok(body);
+    }
+
+    // Storage is freed by the next purge run
+    @DeleteMapping("/trash")
+    public ResponseEntity<EntityResponse<Integer>> emptyTrash(HttpServletRequest http) {
+        int emptied = fileService.emptyTrash();
+        EntityResponse<Integer> body = EntityResponse.<Integer>builder()
+                .success(true)
+                .message(emptied + " file(s) removed from the trash")
+                .data(emptied)
+                .timestamp(Instant.now())
+                .path(http.getRequestURI())
+                .build();
+        return ResponseEntity.ok(body);
+    }
+
     @GetMapping("/{id}/view")
     public ResponseEntity<EntityResponse<FileSummaryResponse>> viewFile(@PathVariable Long id, HttpServletRequest http) {
         try {
@@ -128,6 +476,9 @@ public class FileController {
                 data = toSummary(file, false);
                 message = "This file is private and cannot be viewed or accessed by other users.";
             }
+            if (data.getFileUrl() != null) {
+                downloadCounterService.record(file.getId());
+            }
 
             EntityResponse<FileSummaryResponse> body = EntityResponse.<FileSummaryResponse>builder()
                     .success(file.getVisibility() == FileItem.Visibility.PUBLIC || isOwner || isShared)
@@ -156,6 +507,26 @@ public class FileController {
         }
     }
 
+    // A cursor the client made up or mangled is its error, not ours
+    private static <T> CursorPage<T> withCursor(Supplier<CursorPage<T>> listing) {
+        try {
+            return listing.get();
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage());
+        }
+    }
+
+    private UploadResponse toUpload(FileItem file) {
+        return UploadResponse.builder()
+                .id(file.getId())
+                .name(file.getOriginalName())
+                .contentType(file.getContentType())
+                .size(file.getSize())
+                .visibility(file.getVisibility().name())
+                .fileUrl(presignedUrlService.inline(file.getS3Key()))
+                .build();
+    }
+
     private FileSummaryResponse toSummary(FileItem file, boolean includeUrl) {
         return FileSummaryResponse.builder()
                 .id(file.getId())
@@ -163,11 +534,27 @@ public class FileController {
                 .contentType(file.getContentType())
                 .size(file.getSize())
                 .visibility(file.getVisibility().name())
-                .fileUrl(includeUrl ? file.getS3Key() : null)
+                .fileUrl(includeUrl ? presignedUrlService.inline(file.getS3Key()) : null)
+                .thumbnailUrl(includeUrl ? presignedUrlService.inline(file.getThumbnailUrl()) : null)
+                .previewUrl(includeUrl ? presignedUrlService.inline(file.getPreviewUrl()) : null)
                 .favorite(file.isFavorite())
                 .build();
     }
 
+    private FileSummaryResponse toSummary(FileSummaryRow row, boolean includeUrl) {
+        return FileSummaryResponse.builder()
+                .id(row.id())
+                .name(row.originalName())
+                .contentType(row.contentType())
+                .size(row.size())
+                .visibility(row.visibility().name())
+                .fileUrl(includeUrl ? presignedUrlService.inline(row.s3Key()) : null)
+                .thumbnailUrl(includeUrl ? presignedUrlService.inline(row.thumbnailUrl()) : null)
+                .previewUrl(includeUrl ? presignedUrlService.inline(row.previewUrl()) : null)
+                .favorite(row.favorite())
+                .build();
+    }
+
     private SharedFileResponse toShared(FileShare share, boolean includeUrl, boolean ownedFlag) {
         FileItem file = share.getFile();
         return SharedFileResponse.builder()
@@ -176,7 +563,7 @@ public class FileController {
                 .contentType(file.getContentType())
                 .size(file.getSize())
                 .visibility(file.getVisibility().name())
-                .fileUrl(includeUrl ? file.getS3Key() : null)
+                .fileUrl(includeUrl ? presignedUrlService.inline(file.getS3Key()) : null)
                 .owned(ownedFlag)
                 .sharedBy(share.getOwner().getEmail())
                 .sharedTo(share.getSharedTo().getEmail())
@@ -185,20 +572,21 @@ public class FileController {
     }
 
     @GetMapping("/user/{userId}")
-    public ResponseEntity<EntityResponse<List<FileSummaryResponse>>> getFilesByUserId(@PathVariable Long userId, HttpServletRequest http) {
-        List<FileItem> files = fileService.listByUserId(userId);
-        List<FileSummaryResponse> data = files.stream()
-                .map(f -> toSummary(f, f.getVisibility() == FileItem.Visibility.PUBLIC))
-                .collect(java.util.stream.Collectors.toList()); // <-- fix toList() error
+    public ResponseEntity<EntityResponse<CursorPage<FileSummaryResponse>>> getFilesByUserId(@PathVariable Long userId,
+                                                                                            @RequestParam(value = "cursor", required = false) String cursor,
+                                                                                            @RequestParam(value = "limit", defaultValue = "50") int limit,
+                                                                                            HttpServletRequest http) {
+        CursorPage<FileSummaryResponse> data = withCursor(() -> fileService.listByUserId(userId, cursor, limit))
+                .map(f -> toSummary(f, f.visibility() == FileItem.Visibility.PUBLIC));
 
         String message;
-        if (files.isEmpty()) {
+        if (data.getItems().isEmpty()) {
             message = "No files found for user " + userId;
         } else {
             message = "Files fetched for user " + userId;
         }
 
-        EntityResponse<List<FileSummaryResponse>> body = EntityResponse.<List<FileSummaryResponse>>builder()
+        EntityResponse<CursorPage<FileSummaryResponse>> body = EntityResponse.<CursorPage<FileSummaryResponse>>builder()
                 .success(true)
                 .message(message)
                 .data(data)
@@ -221,6 +609,113 @@ public class FileController {
         return ResponseEntity.ok(body);
     }
 
+    /**
+     * Streams the file through the API for clients that cannot follow a redirect to S3. Supports a
+     * single Range (206 / 416) and If-Range, so video seeking and resumed downloads work.
+     */
+    @GetMapping("/{id}/content")
+    public void content(@PathVariable Long id,
+                        @RequestParam(value = "download", defaultValue = "false") boolean download,
+                        @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                        @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+                        HttpServletResponse response) throws IOException {
+        FileItem file;
+        try {
+            file = fileService.getFileForView(id);
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found with id: " + id);
+        } catch (IllegalStateException ex) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "This file is private and cannot be accessed by other users.");
+        }
+
+        ResponseInputStream<GetObjectResponse> in;
+        try {
+            in = fileService.openContent(file, range, ifRange);
+        } catch (ResponseStatusException ex) {
+            if (ex.getStatusCode() != HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE) {
+                throw ex;
+            }
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            if (file.getSize() != null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + file.getSize());
+            }
+            return;
+        }
+
+        boolean complete = false;
+        try {
+            GetObjectResponse object = in.response();
+            String contentRange = object.contentRange();
+            // A resumed or seeking request is the same download; count only the one that starts at 0
+            if (contentRange == null || contentRange.startsWith("bytes 0-")) {
+                downloadCounterService.record(file.getId());
+            }
+            response.setStatus(contentRange != null ? HttpStatus.PARTIAL_CONTENT.value() : HttpStatus.OK.value());
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            response.setContentType(file.getContentType() != null ? file.getContentType() : object.contentType());
+            response.setContentLengthLong(object.contentLength());
+            if (contentRange != null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange);
+            }
+            if (object.eTag() != null) {
+                response.setHeader(HttpHeaders.ETAG, object.eTag());
+            }
+            if (object.lastModified() != null) {
+                response.setDateHeader(HttpHeaders.LAST_MODIFIED, object.lastModified().toEpochMilli());
+            }
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "private");
+            ContentDisposition.Builder disposition = download ? ContentDisposition.attachment() : ContentDisposition.inline();
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition
+                    .filename(file.getOriginalName(), StandardCharsets.UTF_8)
+                    .build()
+                    .toString());
+
+            // Copies through one fixed-size chunk; nothing here grows with the object or the range
+            in.transferTo(response.getOutputStream());
+            complete = true;
+        } catch (IOException ex) {
+            // Usually the client went away mid-stream; headers are committed so nothing more can be sent
+            System.err.println("Content stream for file " + id + " ended early: " + ex.getMessage());
+        } finally {
+            if (!complete) {
+                in.abort(); // otherwise close() would drain the rest of the object from S3
+            }
+            in.close();
+        }
+    }
+
+    /**
+     * Downloads several files as one ZIP, built while it is sent. Access is checked for every file
+     * before the first byte goes out; after that, an S3 failure only drops that file from the archive.
+     */
+    @PostMapping(value = "/archive", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public void archive(@Valid @RequestBody ArchiveRequest request, HttpServletResponse response) throws IOException {
+        List<FileItem> files;
+        try {
+            files = fileService.listForArchive(request);
+        } catch (IllegalArgumentException ex) {
+            HttpStatus status = ex.getMessage() != null && ex.getMessage().startsWith("File not found")
+                    ? HttpStatus.NOT_FOUND : HttpStatus.BAD_REQUEST;
+            throw new ResponseStatusException(status, ex.getMessage());
+        } catch (IllegalStateException ex) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, ex.getMessage());
+        }
+
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-store");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename("cloudshare-" + LocalDate.now() + ".zip")
+                .build()
+                .toString());
+        try {
+            archiveService.writeArchive(files, response.getOutputStream());
+        } catch (IOException ex) {
+            // Headers are committed; the client sees a truncated archive, which ZIP readers reject
+            System.err.println("Archive download ended early: " + ex.getMessage());
+        }
+    }
+
     @GetMapping("/{id}/download-url")
     public ResponseEntity<EntityResponse<DownloadUrlResponse>> getDownloadUrl(@PathVariable Long id, HttpServletRequest http) {
         try {
@@ -229,8 +724,13 @@ public class FileController {
             boolean isShared = fileService.isSharedWithCurrentUser(file);
             boolean canAccessUrl = file.getVisibility() == FileItem.Visibility.PUBLIC || isOwner || isShared;
 
-            DownloadUrlResponse data = new DownloadUrlResponse(canAccessUrl ? file.getS3Key() : null);
+            DownloadUrlResponse data = new DownloadUrlResponse(canAccessUrl
+                    ? presignedUrlService.attachment(file.getS3Key(), file.getOriginalName())
+                    : null);
             String message = canAccessUrl ? "Download URL generated" : "You are not allowed to access the download URL for this file.";
+            if (canAccessUrl) {
+                downloadCounterService.record(file.getId());
+            }
 
             EntityResponse<DownloadUrlResponse> body = EntityResponse.<DownloadUrlResponse>builder()
                     .success(canAccessUrl)
@@ -286,12 +786,12 @@ public class FileController {
     }
 
     @GetMapping("/favorites")
-    public ResponseEntity<EntityResponse<List<FileSummaryResponse>>> listFavorites(HttpServletRequest http) {
-        List<FileItem> favs = fileService.listFavorites();
-        List<FileSummaryResponse> data = favs.stream()
-                .map(f -> toSummary(f, true))
-                .collect(java.util.stream.Collectors.toList());
-        EntityResponse<List<FileSummaryResponse>> body = EntityResponse.<List<FileSummaryResponse>>builder()
+    public ResponseEntity<EntityResponse<CursorPage<FileSummaryResponse>>> listFavorites(@RequestParam(value = "cursor", required = false) String cursor,
+                                                                                         @RequestParam(value = "limit", defaultValue = "50") int limit,
+                                                                                         HttpServletRequest http) {
+        CursorPage<FileSummaryResponse> data = withCursor(() -> fileService.listFavorites(cursor, limit))
+                .map(f -> toSummary(f, true));
+        EntityResponse<CursorPage<FileSummaryResponse>> body = EntityResponse.<CursorPage<FileSummaryResponse>>builder()
                 .success(true)
                 .message("Favorite files fetched")
                 .data(data)
@@ -327,13 +827,38 @@ public class FileController {
         }
     }
 
+    /**
+     * Shares several of the caller's files with several users in one request. Files the caller
+     * cannot share and emails with no account are reported; everything else is shared.
+     */
+    @PostMapping(path = "/share-batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<EntityResponse<BatchShareResponse>> shareBatch(@Valid @RequestBody BatchShareRequest request,
+                                                                         HttpServletRequest http) {
+        BatchShareResponse data;
+        try {
+            data = fileService.shareBatch(request.getFileIds(), request.getEmails());
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage());
+        } catch (DataIntegrityViolationException ex) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Some of these files were shared at the same time; try again");
+        }
+        EntityResponse<BatchShareResponse> body = EntityResponse.<BatchShareResponse>builder()
+                .success(true)
+                .message(data.getShared() + " share(s) created")
+                .data(data)
+                .timestamp(Instant.now())
+                .path(http.getRequestURI())
+                .build();
+        return ResponseEntity.ok(body);
+    }
+
     @GetMapping("/shared/with-me")
-    public ResponseEntity<EntityResponse<List<SharedFileResponse>>> listSharedWithMe(HttpServletRequest http) {
-        List<FileShare> shares = fileService.listSharedWithMe();
-        List<SharedFileResponse> data = shares.stream()
-                .map(s -> toShared(s, true, false))
-                .collect(java.util.stream.Collectors.toList());
-        EntityResponse<List<SharedFileResponse>> body = EntityResponse.<List<SharedFileResponse>>builder()
+    public ResponseEntity<EntityResponse<CursorPage<SharedFileResponse>>> listSharedWithMe(@RequestParam(value = "cursor", required = false) String cursor,
+                                                                                           @RequestParam(value = "limit", defaultValue = "50") int limit,
+                                                                                           HttpServletRequest http) {
+        CursorPage<SharedFileResponse> data = withCursor(() -> fileService.listSharedWithMe(cursor, limit))
+                .map(s -> toShared(s, true, false));
+        EntityResponse<CursorPage<SharedFileResponse>> body = EntityResponse.<CursorPage<SharedFileResponse>>builder()
                 .success(true)
                 .message("Shared files fetched")
                 .data(data)
@@ -344,12 +869,12 @@ public class FileController {
     }
 
     @GetMapping("/shared/by-me")
-    public ResponseEntity<EntityResponse<List<SharedFileResponse>>> listSharedByMe(HttpServletRequest http) {
-        List<FileShare> shares = fileService.listSharedByMe();
-        List<SharedFileResponse> data = shares.stream()
-                .map(s -> toShared(s, true, true))
-                .collect(java.util.stream.Collectors.toList());
-        EntityResponse<List<SharedFileResponse>> body = EntityResponse.<List<SharedFileResponse>>builder()
+    public ResponseEntity<EntityResponse<CursorPage<SharedFileResponse>>> listSharedByMe(@RequestParam(value = "cursor", required = false) String cursor,
+                                                                                         @RequestParam(value = "limit", defaultValue = "50") int limit,
+                                                                                         HttpServletRequest http) {
+        CursorPage<SharedFileResponse> data = withCursor(() -> fileService.listSharedByMe(cursor, limit))
+                .map(s -> toShared(s, true, true));
+        EntityResponse<CursorPage<SharedFileResponse>> body = EntityResponse.<CursorPage<SharedFileResponse>>builder()
                 .success(true)
                 .message("Shared files by me fetched")
                 .data(data)
@@ -1,14 +1,19 @@
 package com.cloudshareoriginal.controller;
 
+import com.cloudshareoriginal.dto.AccountDeletionResponse;
 import com.cloudshareoriginal.dto.EntityResponse;
 import com.cloudshareoriginal.dto.UserEmailResponse;
 import com.cloudshareoriginal.dto.UserProfileResponse;
+import com.cloudshareoriginal.model.AccountDeletion;
+import com.cloudshareoriginal.service.AccountDeletionService;
 import com.cloudshareoriginal.service.UserService;
 import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.time.Instant;
 import java.util.List;
@@ -18,9 +23,11 @@ import java.util.List;
 public class UserController {
 
     private final UserService userService;
+    private final AccountDeletionService accountDeletionService;
 
-    public UserController(UserService userService) {
+    public UserController(UserService userService, AccountDeletionService accountDeletionService) {
         this.userService = userService;
+        this.accountDeletionService = accountDeletionService;
     }
 
     @GetMapping("/me")
@@ -81,13 +88,33 @@ public class UserController {
         return ResponseEntity.ok(body);
     }
 
+    /**
+     * Disables the account at once and deletes it in the background. The response carries a token
+     * for polling the progress, since the account's own tokens stop working.
+     */
     @DeleteMapping("/delete")
-    public ResponseEntity<EntityResponse<String>> deleteCurrentUser(HttpServletRequest request) {
-        userService.deleteCurrentUser();
-        EntityResponse<String> body = EntityResponse.<String>builder()
+    public ResponseEntity<EntityResponse<AccountDeletionResponse>> deleteCurrentUser(HttpServletRequest request) {
+        AccountDeletion job = accountDeletionService.request();
+        EntityResponse<AccountDeletionResponse> body = EntityResponse.<AccountDeletionResponse>builder()
+                .success(true)
+                .message("Account deletion started")
+                .data(AccountDeletionResponse.of(job))
+                .timestamp(Instant.now())
+                .path(request.getRequestURI())
+                .build();
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(body);
+    }
+
+    // Open to anyone holding the token; the account can no longer authenticate
+    @GetMapping("/deletion/{token}")
+    public ResponseEntity<EntityResponse<AccountDeletionResponse>> deletionStatus(@PathVariable String token,
+                                                                                  HttpServletRequest request) {
+        AccountDeletion job = accountDeletionService.findByToken(token)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Deletion not found"));
+        EntityResponse<AccountDeletionResponse> body = EntityResponse.<AccountDeletionResponse>builder()
                 .success(true)
-                .message("Account deleted successfully")
-                .data("deleted")
+                .message(job.getStatus() == AccountDeletion.Status.DONE ? "Account deleted" : "Account deletion in progress")
+                .data(AccountDeletionResponse.of(job))
                 .timestamp(Instant.now())
                 .path(request.getRequestURI())
                 .build();
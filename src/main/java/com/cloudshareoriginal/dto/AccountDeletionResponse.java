@@ -0,0 +1,33 @@
+package com.cloudshareoriginal.dto;
+
+import com.cloudshareoriginal.model.AccountDeletion;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@Builder
+public class AccountDeletionResponse {
+    private String token; // for GET /api/user/deletion/{token}; the account's own tokens no longer work
+    private String status; // PENDING, RUNNING or DONE
+    private String phase;  // FILES, ACCOUNT or DONE
+    private Long filesTotal;
+    private Long filesDeleted;
+    private Instant requestedAt;
+    private Instant updatedAt;
+    private Instant completedAt;
+
+    public static AccountDeletionResponse of(AccountDeletion job) {
+        return AccountDeletionResponse.builder()
+                .token(job.getToken())
+                .status(job.getStatus().name())
+                .phase(job.getPhase().name())
+                .filesTotal(job.getFilesTotal())
+                .filesDeleted(job.getFilesDeleted())
+                .requestedAt(job.getRequestedAt())
+                .updatedAt(job.getUpdatedAt())
+                .completedAt(job.getCompletedAt())
+                .build();
+    }
+}
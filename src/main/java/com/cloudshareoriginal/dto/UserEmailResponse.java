@@ -11,4 +11,5 @@ public class UserEmailResponse {
     private String firstName;
     private String lastName;
     private String profileImageUrl;
+    private String profileAvatarUrl;
 }
\ No newline at end of file
@@ -12,6 +12,7 @@ public class UserProfileResponse {
     private String lastName;
     private String role;
     private String profileImageUrl;
+    private String profileAvatarUrl; // falls back to profileImageUrl while null
     private Boolean emailVerified;
     private Boolean premium; // true if user has an active subscription
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.cloudshareoriginal.dto.files;
+
+import com.cloudshareoriginal.model.FileItem;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Which files go into a ZIP download: either explicit ids, or a scope. Ids win when both are sent.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ArchiveRequest {
+
+    public enum Scope { ALL, FAVORITES, SHARED_WITH_ME }
+
+    @Size(max = 1000)
+    private List<Long> ids;
+
+    private Scope scope;                   // defaults to ALL (your own files)
+    private FileItem.Visibility visibility; // optional filter for scope ALL
+}
@@ -0,0 +1,21 @@
+package com.cloudshareoriginal.dto.files;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchDeleteRequest {
+
+    @NotEmpty
+    @Size(max = 5000)
+    private List<Long> ids;
+}
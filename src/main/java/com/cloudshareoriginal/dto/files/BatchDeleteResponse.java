@@ -0,0 +1,19 @@
+package com.cloudshareoriginal.dto.files;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchDeleteResponse {
+
+    private int deleted;
+    private List<Long> deletedIds;
+    private List<Long> notFound; // ids that do not exist or belong to someone else
+}
@@ -0,0 +1,27 @@
+package com.cloudshareoriginal.dto.files;
+
+import jakarta.validation.constraints.Email;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchShareRequest {
+
+    @NotEmpty
+    @Size(max = 1000)
+    private List<Long> fileIds;
+
+    @NotEmpty
+    @Size(max = 100)
+    private List<@NotBlank @Email String> emails; // recipients (must be registered)
+}
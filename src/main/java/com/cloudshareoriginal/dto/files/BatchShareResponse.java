@@ -0,0 +1,20 @@
+package com.cloudshareoriginal.dto.files;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchShareResponse {
+
+    private int shared;            // new shares created
+    private int alreadyShared;     // pairs that were shared before and were left as they are
+    private List<Long> notFound;   // file ids that do not exist, are trashed or belong to someone else
+    private List<String> unknownEmails; // emails with no registered user
+}
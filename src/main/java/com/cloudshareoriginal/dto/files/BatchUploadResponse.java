@@ -0,0 +1,30 @@
+package com.cloudshareoriginal.dto.files;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchUploadResponse {
+
+    private int uploaded;
+    private int failed;
+    private List<Item> items; // same order as the submitted parts
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Item {
+        private String name;
+        private boolean success;
+        private String error;      // null on success
+        private UploadResponse file; // null on failure
+    }
+}
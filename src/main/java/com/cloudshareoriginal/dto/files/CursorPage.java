@@ -0,0 +1,24 @@
+package com.cloudshareoriginal.dto.files;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.function.Function;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPage<T> {
+
+    private List<T> items;
+    private String nextCursor; // pass back as ?cursor= for the next page; null on the last page
+    private boolean hasMore;
+
+    public <R> CursorPage<R> map(Function<? super T, ? extends R> mapper) {
+        return new CursorPage<>(items.stream().<R>map(mapper).toList(), nextCursor, hasMore);
+    }
+}
@@ -12,5 +12,7 @@ public class FileSummaryResponse {
     private Long size;
     private String visibility; // "PUBLIC" | "PRIVATE"
     private String fileUrl;    // may be null for private files
+    private String thumbnailUrl; // images only, same visibility rule as fileUrl
+    private String previewUrl;
     private Boolean favorite;  // whether this file is marked favorite by the owner
 }
@@ -0,0 +1,22 @@
+package com.cloudshareoriginal.dto.files;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InstantUploadRequest {
+    @NotBlank
+    @Pattern(regexp = "[0-9a-fA-F]{64}", message = "must be a hex SHA-256")
+    private String sha256;
+    @NotBlank
+    private String fileName;
+    private String contentType; // optional, defaults to the stored content type
+    @Positive
+    private long size;
+}
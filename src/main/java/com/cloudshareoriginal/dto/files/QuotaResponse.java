@@ -10,8 +10,13 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 public class QuotaResponse {
-    private int used;
+    private int used; // includes uploads still in progress
+    private int reserved; // of which in progress
     private int limit;
     private int remaining;
+    private long usedBytes; // includes uploads still in progress
+    private long reservedBytes;
+    private long limitBytes;
+    private long remainingBytes;
     private String plan; // optional
 }
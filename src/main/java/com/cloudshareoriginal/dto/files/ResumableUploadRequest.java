@@ -0,0 +1,19 @@
+package com.cloudshareoriginal.dto.files;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResumableUploadRequest {
+    @NotBlank
+    private String fileName;
+    @NotBlank
+    private String contentType;
+    @Positive
+    private long size;
+}
@@ -0,0 +1,20 @@
+package com.cloudshareoriginal.dto.files;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResumableUploadResponse {
+    private String uploadToken;
+    private Long fileId;
+    private String name;
+    private long size;
+    private long chunkSize;      // every chunk except the last must be exactly this long
+    private long committedBytes; // offset of the next chunk to send
+    private String status;       // "UPLOADING" | "READY"
+}
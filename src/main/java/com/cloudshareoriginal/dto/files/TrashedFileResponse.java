@@ -0,0 +1,16 @@
+package com.cloudshareoriginal.dto.files;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@Builder
+public class TrashedFileResponse {
+    private Long id;
+    private String name;
+    private String contentType;
+    private Long size;
+    private Instant deletedAt; // removed for good once the retention period has passed
+}
@@ -1,6 +1,7 @@
 package com.cloudshareoriginal.dto.files;
 
 import com.cloudshareoriginal.model.FileItem;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
@@ -11,6 +12,7 @@ import java.util.List;
 public class UploadCompleteRequest {
 
     @NotEmpty
+    @Valid
     private List<Item> items;
 
     @NotNull
@@ -20,11 +22,9 @@ public class UploadCompleteRequest {
     public static class Item {
         @NotNull
         private String tempId;
-        @NotNull
+        // Informational only; the server uses what was reserved at upload-init
         private String fileName;
-        @NotNull
         private String contentType;
-        @NotNull
         private Long size;
     }
 }
@@ -1,28 +1,33 @@
 package com.cloudshareoriginal.dto.files;
 
-import jakarta.validation.constraints.Max;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
-import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.util.List;
 
 @Builder
 @Data
+@NoArgsConstructor
+@AllArgsConstructor
 public class UploadInitRequest {
-    @NotNull
-    @Max(5)
+    // Upper bound is app.files.max-per-upload, enforced in FileService
+    @NotEmpty
+    @Valid
     private List<FileSpec> files;
 
     @Data
+    @NoArgsConstructor
     public static class FileSpec {
         @NotBlank
         private String fileName;
         @NotBlank
         private String contentType;
-        @NotNull
         @Positive
         private long size; // Changed from Long to long
 
@@ -6,6 +6,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.util.List;
+import java.util.Map;
 
 @Data
 @Builder
@@ -26,6 +27,7 @@ public class UploadInitResponse {
         private String uploadUrl;
         private String contentType;
         private long maxSize;
+        private Map<String, String> headers; // headers the client must send with the PUT
     }
 
     @Data
@@ -0,0 +1,85 @@
+package com.cloudshareoriginal.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * A queued or running account deletion, and its checkpoint. The user id is a plain column rather
+ * than a foreign key: the user row is removed in the last step and this record stays behind so the
+ * status can still be read.
+ */
+@Entity
+@Table(name = "account_deletions", indexes = {
+        @Index(name = "idx_deletion_user", columnList = "user_id", unique = true),
+        @Index(name = "idx_deletion_token", columnList = "token", unique = true),
+        @Index(name = "idx_deletion_status", columnList = "status")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class AccountDeletion {
+
+    public enum Status { PENDING, RUNNING, DONE }
+
+    // Work goes in this order; the job can stop after any chunk and pick up from the stored phase
+    public enum Phase { FILES, ACCOUNT, DONE }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    // Handed to the client to poll the status; the account's own tokens stop working at once
+    @Column(nullable = false, length = 36)
+    private String token;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    @Builder.Default
+    private Status status = Status.PENDING;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    @Builder.Default
+    private Phase phase = Phase.FILES;
+
+    @Builder.Default
+    private Long filesTotal = 0L;
+
+    @Builder.Default
+    private Long filesDeleted = 0L;
+
+    @Builder.Default
+    private Integer attempts = 0;
+
+    @Column(length = 500)
+    private String lastError;
+
+    // A worker owns the job until then; a job whose lease ran out is picked up again
+    private Instant leaseUntil;
+
+    // Random id of the run holding the lease; every checkpoint is written only under it
+    @Column(length = 36)
+    private String leaseOwner;
+
+    private Instant requestedAt;
+    private Instant updatedAt;
+    private Instant completedAt;
+
+    @PrePersist
+    public void prePersist() {
+        Instant now = Instant.now();
+        if (requestedAt == null) requestedAt = now;
+        updatedAt = now;
+    }
+}
@@ -0,0 +1,54 @@
+package com.cloudshareoriginal.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * A stored S3 object, shared by every FileItem with the same content. The object is removed only
+ * when the last referencing FileItem goes away.
+ */
+@Entity
+@Table(name = "blobs", uniqueConstraints = {
+        // One blob per content; unhashed blobs (null sha256) are not constrained
+        @UniqueConstraint(name = "uk_blob_sha256_size", columnNames = {"sha256", "size"})
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class Blob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Hex SHA-256 of the content; null when the bytes never passed through us (presigned uploads)
+    @Column(length = 64)
+    private String sha256;
+
+    @Column(nullable = false, length = 512)
+    private String s3Key;
+
+    private Long size;
+
+    @Column(length = 120)
+    private String contentType;
+
+    @Builder.Default
+    @Column(nullable = false)
+    private Long refCount = 1L;
+
+    private Instant createdAt;
+
+    @PrePersist
+    public void prePersist() {
+        if (createdAt == null) createdAt = Instant.now();
+    }
+}
@@ -1,5 +1,6 @@
 package com.cloudshareoriginal.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -8,10 +9,22 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
 
 @Entity
 @Table(name = "file_items", indexes = {
-        @Index(name = "idx_file_owner", columnList = "owner_id"),
+        // Keyset listings: equality columns first, then the (created_at, id) sort key.
+        // owner_id leads, so these also serve plain owner lookups and the foreign key
+        @Index(name = "idx_file_owner_status_created", columnList = "owner_id, status, created_at, id"),
+        @Index(name = "idx_file_owner_vis_status_created", columnList = "owner_id, visibility, status, created_at, id"),
+        @Index(name = "idx_file_owner_fav_status_created", columnList = "owner_id, favorite, status, created_at, id"),
+        // Trash: the owner's listing, and the purger's scan for expired entries
+        @Index(name = "idx_file_owner_status_deleted", columnList = "owner_id, status, deleted_at, id"),
+        @Index(name = "idx_file_status_deleted", columnList = "status, deleted_at"),
+        // Upload sweep: UPLOADING rows nobody has touched for a while
+        @Index(name = "idx_file_status_updated", columnList = "status, updated_at"),
+        @Index(name = "idx_file_blob", columnList = "blob_id"),
         @Index(name = "idx_file_visibility", columnList = "visibility")
 })
 @Getter
@@ -28,6 +41,7 @@ public class FileItem {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    @JsonIgnore
     @ManyToOne(optional = false, fetch = FetchType.LAZY)
     @JoinColumn(name = "owner_id")
     private User owner;
@@ -35,12 +49,25 @@ public class FileItem {
     @Column(length = 300)
     private String originalName;
 
+    // Content this file points at; null only for rows created before blobs existed
+    @JsonIgnore
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "blob_id")
+    private Blob blob;
+
     @Column(nullable = false, length = 512)
-    private String s3Key;
+    private String s3Key; // URL of the blob's object, kept on the row for listings
 
     @Column(length = 120)
     private String contentType;
 
+    // Downscaled JPEG renditions of image files; null until generated (or for non-images)
+    @Column(length = 600)
+    private String thumbnailUrl;
+
+    @Column(length = 600)
+    private String previewUrl;
+
     private Long size;
 
     @Enumerated(EnumType.STRING)
@@ -60,12 +87,34 @@ public class FileItem {
     @Column(nullable = false)
     private boolean favorite = false;
 
+    // The kind of an UPLOADING row follows from these two: presigned rows have only the token,
+    // resumable ones both, and uploads streamed through the server neither
     @Column(length = 64, unique = true)
     private String uploadToken; // tempId used during upload-init/complete
 
+    // Resumable uploads only: the S3 multipart upload backing the session
+    @Column(length = 1024)
+    private String multipartUploadId;
+
+    // Resumable uploads only: the chunk size the session was opened with, so changing the
+    // configured part size does not move the part boundaries of sessions under way
+    private Integer partSize;
+
+    @Builder.Default
+    private Long committedBytes = 0L;
+
+    @JsonIgnore
+    @ElementCollection
+    @CollectionTable(name = "file_upload_parts", joinColumns = @JoinColumn(name = "file_id"))
+    @Builder.Default
+    private Set<UploadPart> uploadParts = new HashSet<>();
+
     private Instant createdAt;
     private Instant updatedAt;
 
+    // When the file was moved to the trash (status DELETED); the purger removes it a while later
+    private Instant deletedAt;
+
     @PrePersist
     public void prePersist() {
         Instant now = Instant.now();
@@ -11,8 +11,9 @@ import java.time.Instant;
                 @UniqueConstraint(name = "uk_file_recipient", columnNames = {"file_id", "shared_to_id"})
         },
         indexes = {
-                @Index(name = "idx_shared_to", columnList = "shared_to_id"),
-                @Index(name = "idx_shared_owner", columnList = "owner_id"),
+                // Keyset listings on (shared_on, id); the leading column still serves its foreign key
+                @Index(name = "idx_shared_to_on", columnList = "shared_to_id, shared_on, id"),
+                @Index(name = "idx_shared_owner_on", columnList = "owner_id, shared_on, id"),
                 @Index(name = "idx_shared_file", columnList = "file_id")
         }
 )
@@ -0,0 +1,30 @@
+package com.cloudshareoriginal.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * One committed chunk of a resumable upload, i.e. one part of the backing S3 multipart upload.
+ */
+@Embeddable
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode(of = "partNumber")
+public class UploadPart {
+
+    @Column(nullable = false)
+    private int partNumber;
+
+    @Column(nullable = false, length = 128)
+    private String etag;
+
+    @Column(nullable = false)
+    private long size;
+}
@@ -69,6 +69,9 @@ public class User implements UserDetails {
     @Column(length = 512)
     private String profileImageUrl;
 
+    @Column(length = 600)
+    private String profileAvatarUrl; // small square rendition of profileImageUrl, null until generated
+
     @PrePersist
     @PreUpdate
     private void syncUsername() {
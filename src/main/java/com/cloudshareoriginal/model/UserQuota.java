@@ -2,6 +2,7 @@ package com.cloudshareoriginal.model;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.time.Instant;
 
@@ -25,9 +26,36 @@ public class UserQuota {
     @Builder.Default
     private Integer limitFiles = 0;
 
+    // Usage only ever changes through the conditional updates in UserQuotaRepository; saving a
+    // stale entity must not overwrite it
     @Builder.Default
+    @Column(updatable = false)
     private Integer usedFiles = 0;
 
+    // Files whose upload has started but not finished; they count against the limit. Rows that
+    // predate the column are backfilled by QuotaService#backfillLegacyRows
+    @Builder.Default
+    @ColumnDefault("0")
+    @Column(updatable = false, nullable = false)
+    private Integer reservedFiles = 0;
+
+    // No database default: the right limit depends on the plan, so rows that predate the column
+    // are filled in by QuotaService#backfillLegacyRows
+    @Builder.Default
+    private Long limitBytes = 0L;
+
+    // Stored bytes, kept up to date on every upload and delete rather than summed from file_items
+    @Builder.Default
+    @ColumnDefault("0")
+    @Column(updatable = false, nullable = false)
+    private Long usedBytes = 0L;
+
+    // Bytes held by uploads in progress
+    @Builder.Default
+    @ColumnDefault("0")
+    @Column(updatable = false, nullable = false)
+    private Long reservedBytes = 0L;
+
     private String subscriptionId;
 
     @Builder.Default
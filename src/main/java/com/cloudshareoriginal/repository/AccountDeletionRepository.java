@@ -0,0 +1,58 @@
+package com.cloudshareoriginal.repository;
+
+import com.cloudshareoriginal.model.AccountDeletion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface AccountDeletionRepository extends JpaRepository<AccountDeletion, Long> {
+    Optional<AccountDeletion> findByUserId(Long userId);
+    Optional<AccountDeletion> findByToken(String token);
+
+    // Unfinished jobs nobody holds a lease on: new ones, and ones left behind by a stopped worker
+    @Query("""
+            select d.id from AccountDeletion d
+            where d.status <> com.cloudshareoriginal.model.AccountDeletion.Status.DONE
+              and (d.leaseUntil is null or d.leaseUntil < :now)
+            order by d.id""")
+    List<Long> findClaimable(@Param("now") Instant now);
+
+    // Takes the lease; fails (returns 0) while another run holds it
+    @Modifying
+    @Query("""
+            update AccountDeletion d
+            set d.leaseOwner = :owner, d.leaseUntil = :until, d.attempts = d.attempts + 1,
+                d.status = com.cloudshareoriginal.model.AccountDeletion.Status.RUNNING, d.updatedAt = :now
+            where d.id = :id and d.status <> com.cloudshareoriginal.model.AccountDeletion.Status.DONE
+              and (d.leaseUntil is null or d.leaseUntil < :now)""")
+    int claim(@Param("id") Long id, @Param("owner") String owner, @Param("now") Instant now, @Param("until") Instant until);
+
+    // Records a finished chunk and extends the lease, in the chunk's own transaction. Fails
+    // (returns 0) if the lease was lost, so the caller can roll the chunk back
+    @Modifying
+    @Query("""
+            update AccountDeletion d
+            set d.filesDeleted = d.filesDeleted + :files, d.phase = :phase, d.leaseUntil = :until, d.updatedAt = :now
+            where d.id = :id and d.leaseOwner = :owner""")
+    int checkpoint(@Param("id") Long id, @Param("owner") String owner, @Param("files") long files,
+                   @Param("phase") AccountDeletion.Phase phase, @Param("now") Instant now, @Param("until") Instant until);
+
+    @Modifying
+    @Query("""
+            update AccountDeletion d
+            set d.status = com.cloudshareoriginal.model.AccountDeletion.Status.DONE,
+                d.phase = com.cloudshareoriginal.model.AccountDeletion.Phase.DONE,
+                d.leaseOwner = null, d.leaseUntil = null, d.lastError = null, d.updatedAt = :now, d.completedAt = :now
+            where d.id = :id and d.leaseOwner = :owner""")
+    int complete(@Param("id") Long id, @Param("owner") String owner, @Param("now") Instant now);
+
+    // Gives the job back after a failure; it is retried once the lease has run out
+    @Modifying
+    @Query("update AccountDeletion d set d.lastError = :error, d.updatedAt = :now where d.id = :id and d.leaseOwner = :owner")
+    int fail(@Param("id") Long id, @Param("owner") String owner, @Param("error") String error, @Param("now") Instant now);
+}
@@ -0,0 +1,59 @@
+package com.cloudshareoriginal.repository;
+
+import com.cloudshareoriginal.model.Blob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface BlobRepository extends JpaRepository<Blob, Long> {
+    Optional<Blob> findFirstBySha256AndSizeOrderByIdAsc(String sha256, Long size);
+
+    // The blob with this content, but only if one of the owner's files (live or trashed) references it
+    @Query("""
+            select b from Blob b
+            where b.sha256 = :sha256 and b.size = :size
+              and exists (select f.id from FileItem f where f.blob = b and f.owner.id = :ownerId)""")
+    Optional<Blob> findOwned(@Param("ownerId") Long ownerId, @Param("sha256") String sha256, @Param("size") Long size);
+
+    // Inserts the blob unless one with the same content already exists; the unique
+    // (sha256, size) key makes concurrent first uploads of the same content agree on one row
+    @Modifying
+    @Query(value = """
+            insert into blobs (sha256, s3key, size, content_type, ref_count, created_at)
+            values (:sha256, :s3Key, :size, :contentType, 1, :createdAt)
+            on duplicate key update id = id""", nativeQuery = true)
+    int insertIfAbsent(@Param("sha256") String sha256, @Param("s3Key") String s3Key, @Param("size") Long size,
+                       @Param("contentType") String contentType, @Param("createdAt") Instant createdAt);
+
+    // Fails (returns 0) once the blob has dropped to zero references and is being removed
+    @Modifying
+    @Query("update Blob b set b.refCount = b.refCount + 1 where b.id = :id and b.refCount > 0")
+    int acquire(@Param("id") Long id);
+
+    @Modifying
+    @Query("update Blob b set b.refCount = b.refCount - 1 where b.id = :id and b.refCount > 0")
+    int release(@Param("id") Long id);
+
+    @Modifying
+    @Query("delete from Blob b where b.id = :id and b.refCount = 0")
+    int deleteIfUnreferenced(@Param("id") Long id);
+
+    // Bulk variants: each blob in ids loses count references
+    @Modifying
+    @Query("update Blob b set b.refCount = b.refCount - :count where b.id in :ids and b.refCount >= :count")
+    int releaseAll(@Param("ids") Collection<Long> ids, @Param("count") long count);
+
+    // Unreferenced blobs cannot be acquired again, so these keys stay valid until the delete below
+    @Query("select b from Blob b where b.id in :ids and b.refCount = 0")
+    List<Blob> findAllUnreferenced(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("delete from Blob b where b.id in :ids and b.refCount = 0")
+    int deleteAllUnreferenced(@Param("ids") Collection<Long> ids);
+}
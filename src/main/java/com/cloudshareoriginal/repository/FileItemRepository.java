@@ -3,8 +3,16 @@ package com.cloudshareoriginal.repository;
 import com.cloudshareoriginal.model.FileItem;
 import com.cloudshareoriginal.model.FileItem.Status;
 import com.cloudshareoriginal.model.FileItem.Visibility;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,7 +20,178 @@ public interface FileItemRepository extends JpaRepository<FileItem, Long> {
     long countByOwnerIdAndStatusNot(Long ownerId, Status status);
     Optional<FileItem> findByIdAndOwnerId(Long id, Long ownerId);
     Optional<FileItem> findByUploadTokenAndOwnerId(String uploadToken, Long ownerId);
+
+    // Presigned uploads only; a resumable token is not completed this way
+    @Query("""
+            select f from FileItem f
+            where f.uploadToken in :tokens and f.owner.id = :ownerId and f.multipartUploadId is null""")
+    List<FileItem> findPresigned(@Param("tokens") Collection<String> tokens, @Param("ownerId") Long ownerId);
+
+    // Completion and the upload sweep lock the rows, so an upload is either finished or swept, never
+    // both. Locked in id order, so two completions of overlapping batches cannot deadlock
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("""
+            select f from FileItem f
+            where f.uploadToken in :tokens and f.owner.id = :ownerId and f.multipartUploadId is null
+            order by f.id""")
+    List<FileItem> findPresignedForUpdate(@Param("tokens") Collection<String> tokens, @Param("ownerId") Long ownerId);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select f from FileItem f where f.id = :id")
+    Optional<FileItem> findByIdForUpdate(@Param("id") Long id);
     List<FileItem> findAllByOwnerIdOrderByCreatedAtDesc(Long ownerId);
-    List<FileItem> findAllByOwnerIdAndVisibilityOrderByCreatedAtDesc(Long ownerId, Visibility visibility);
-    List<FileItem> findAllByOwnerIdAndFavoriteTrueOrderByCreatedAtDesc(Long ownerId);
+
+    // Bulk delete: which of the ids the owner holds, with blobs loaded for the release. Locked, so a
+    // racing delete or restore of the same files waits instead of moving the quota twice
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select f from FileItem f left join fetch f.blob where f.owner.id = :ownerId and f.id in :ids")
+    List<FileItem> findAllForDelete(@Param("ownerId") Long ownerId, @Param("ids") Collection<Long> ids);
+
+    // Batch sharing: which of these ids are the owner's finished files (not uploading, not trashed)
+    @Query("""
+            select f.id from FileItem f
+            where f.owner.id = :ownerId and f.id in :ids and f.status = com.cloudshareoriginal.model.FileItem.Status.READY""")
+    List<Long> findReadyIdsByOwner(@Param("ownerId") Long ownerId, @Param("ids") Collection<Long> ids);
+
+    // Account deletion: the owner's next files in id order, however many are left
+    @Query("select f from FileItem f left join fetch f.blob where f.owner.id = :ownerId order by f.id")
+    List<FileItem> findChunkForDelete(@Param("ownerId") Long ownerId, Pageable page);
+
+    long countByOwnerId(Long ownerId);
+
+    @Modifying
+    @Query(value = "delete from file_upload_parts where file_id in (:ids)", nativeQuery = true)
+    int deleteUploadParts(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("delete from FileItem f where f.owner.id = :ownerId and f.id in :ids")
+    int deleteAllByOwner(@Param("ownerId") Long ownerId, @Param("ids") Collection<Long> ids);
+
+    // Trash. Only finished files move there; the conditions make a repeated or racing call a no-op
+    @Modifying
+    @Query("""
+            update FileItem f set f.status = com.cloudshareoriginal.model.FileItem.Status.DELETED, f.deletedAt = :now, f.updatedAt = :now
+            where f.owner.id = :ownerId and f.id in :ids and f.status = com.cloudshareoriginal.model.FileItem.Status.READY""")
+    int moveToTrash(@Param("ownerId") Long ownerId, @Param("ids") Collection<Long> ids, @Param("now") Instant now);
+
+    @Modifying
+    @Query("""
+            update FileItem f set f.status = com.cloudshareoriginal.model.FileItem.Status.READY, f.deletedAt = null, f.updatedAt = :now
+            where f.owner.id = :ownerId and f.id = :id and f.status = com.cloudshareoriginal.model.FileItem.Status.DELETED""")
+    int restoreFromTrash(@Param("ownerId") Long ownerId, @Param("id") Long id, @Param("now") Instant now);
+
+    // Empties the trash by making every entry due for the next purge
+    @Modifying
+    @Query("""
+            update FileItem f set f.deletedAt = :due
+            where f.owner.id = :ownerId and f.status = com.cloudshareoriginal.model.FileItem.Status.DELETED""")
+    int expireTrash(@Param("ownerId") Long ownerId, @Param("due") Instant due);
+
+    // Keyset page of the trash, most recently deleted first; backed by (owner_id, status, deleted_at, id)
+    @Query("""
+            select new com.cloudshareoriginal.repository.TrashedFileRow(f.id, f.originalName, f.contentType, f.size, f.deletedAt)
+            from FileItem f
+            where f.owner.id = :ownerId and f.status = com.cloudshareoriginal.model.FileItem.Status.DELETED
+              and (f.deletedAt < :afterAt or (f.deletedAt = :afterAt and f.id < :afterId))
+            order by f.deletedAt desc, f.id desc""")
+    List<TrashedFileRow> findTrashPage(@Param("ownerId") Long ownerId,
+                                       @Param("afterAt") Instant afterAt, @Param("afterId") Long afterId, Pageable page);
+
+    // Purger: the oldest expired trash, locked so a concurrent restore waits and then finds nothing.
+    // Backed by (status, deleted_at)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("""
+            select f from FileItem f left join fetch f.blob
+            where f.status = com.cloudshareoriginal.model.FileItem.Status.DELETED and f.deletedAt < :cutoff
+            order by f.deletedAt, f.id""")
+    List<FileItem> findExpiredTrashForUpdate(@Param("cutoff") Instant cutoff, Pageable page);
+
+    // Upload sweep: presigned uploads whose client never called upload-complete. Presigned rows
+    // are not touched between init and complete, so updatedAt is when the URL was handed out.
+    // Backed by (status, updated_at)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("""
+            select f from FileItem f
+            where f.status = com.cloudshareoriginal.model.FileItem.Status.UPLOADING and f.uploadToken is not null
+              and f.multipartUploadId is null and f.updatedAt < :cutoff
+            order by f.updatedAt, f.id""")
+    List<FileItem> findStalePresignedForUpdate(@Param("cutoff") Instant cutoff, Pageable page);
+
+    // Resumable sessions with no chunk since the cutoff; every chunk bumps updatedAt.
+    // Backed by (status, updated_at)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("""
+            select f from FileItem f
+            where f.status = com.cloudshareoriginal.model.FileItem.Status.UPLOADING
+              and f.multipartUploadId is not null and f.updatedAt < :cutoff
+            order by f.updatedAt, f.id""")
+    List<FileItem> findStaleResumableForUpdate(@Param("cutoff") Instant cutoff, Pageable page);
+
+    // Uploads streamed through the server whose transfer never finished, say because the JVM went
+    // down mid-upload. The row is not touched while the bytes stream, so updatedAt is when it began.
+    // Backed by (status, updated_at)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("""
+            select f from FileItem f
+            where f.status = com.cloudshareoriginal.model.FileItem.Status.UPLOADING and f.uploadToken is null
+              and f.multipartUploadId is null and f.updatedAt < :cutoff
+            order by f.updatedAt, f.id""")
+    List<FileItem> findStaleStreamedForUpdate(@Param("cutoff") Instant cutoff, Pageable page);
+
+    // Keyset pages: rows strictly after (afterAt, afterId) in (createdAt desc, id desc) order.
+    // Each query has a matching (owner_id, [filter,] status, created_at, id) index on file_items.
+    @Query("""
+            select f from FileItem f
+            where f.owner.id = :ownerId and f.status = :status
+              and (f.createdAt < :afterAt or (f.createdAt = :afterAt and f.id < :afterId))
+            order by f.createdAt desc, f.id desc""")
+    List<FileItem> findPageByOwner(@Param("ownerId") Long ownerId, @Param("status") Status status,
+                                   @Param("afterAt") Instant afterAt, @Param("afterId") Long afterId, Pageable page);
+
+    @Query("""
+            select f from FileItem f
+            where f.owner.id = :ownerId and f.visibility = :visibility and f.status = :status
+              and (f.createdAt < :afterAt or (f.createdAt = :afterAt and f.id < :afterId))
+            order by f.createdAt desc, f.id desc""")
+    List<FileItem> findPageByOwnerAndVisibility(@Param("ownerId") Long ownerId, @Param("visibility") Visibility visibility,
+                                                @Param("status") Status status,
+                                                @Param("afterAt") Instant afterAt, @Param("afterId") Long afterId, Pageable page);
+
+    @Query("""
+            select f from FileItem f
+            where f.owner.id = :ownerId and f.favorite = true and f.status = :status
+              and (f.createdAt < :afterAt or (f.createdAt = :afterAt and f.id < :afterId))
+            order by f.createdAt desc, f.id desc""")
+    List<FileItem> findFavoritePageByOwner(@Param("ownerId") Long ownerId, @Param("status") Status status,
+                                           @Param("afterAt") Instant afterAt, @Param("afterId") Long afterId, Pageable page);
+
+    // Same pages as above, projected to the listing columns for the list endpoints
+    String SUMMARY_ROW = "select new com.cloudshareoriginal.repository.FileSummaryRow("
+            + "f.id, f.originalName, f.contentType, f.size, f.visibility, f.s3Key, f.thumbnailUrl, f.previewUrl, f.favorite, f.createdAt)"
+            + " from FileItem f";
+
+    @Query(SUMMARY_ROW + """
+
+            where f.owner.id = :ownerId and f.status = :status
+              and (f.createdAt < :afterAt or (f.createdAt = :afterAt and f.id < :afterId))
+            order by f.createdAt desc, f.id desc""")
+    List<FileSummaryRow> findSummaryPageByOwner(@Param("ownerId") Long ownerId, @Param("status") Status status,
+                                                @Param("afterAt") Instant afterAt, @Param("afterId") Long afterId, Pageable page);
+
+    @Query(SUMMARY_ROW + """
+
+            where f.owner.id = :ownerId and f.visibility = :visibility and f.status = :status
+              and (f.createdAt < :afterAt or (f.createdAt = :afterAt and f.id < :afterId))
+            order by f.createdAt desc, f.id desc""")
+    List<FileSummaryRow> findSummaryPageByOwnerAndVisibility(@Param("ownerId") Long ownerId, @Param("visibility") Visibility visibility,
+                                                             @Param("status") Status status,
+                                                             @Param("afterAt") Instant afterAt, @Param("afterId") Long afterId, Pageable page);
+
+    @Query(SUMMARY_ROW + """
+
+            where f.owner.id = :ownerId and f.favorite = true and f.status = :status
+              and (f.createdAt < :afterAt or (f.createdAt = :afterAt and f.id < :afterId))
+            order by f.createdAt desc, f.id desc""")
+    List<FileSummaryRow> findFavoriteSummaryPageByOwner(@Param("ownerId") Long ownerId, @Param("status") Status status,
+                                                        @Param("afterAt") Instant afterAt, @Param("afterId") Long afterId, Pageable page);
 }
@@ -1,14 +1,61 @@
 package com.cloudshareoriginal.repository;
 
 import com.cloudshareoriginal.model.FileShare;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface FileShareRepository extends JpaRepository<FileShare, Long> {
     boolean existsByFile_IdAndSharedTo_Id(Long fileId, Long sharedToId);
     Optional<FileShare> findByFile_IdAndSharedTo_Id(Long fileId, Long sharedToId);
-    List<FileShare> findAllBySharedTo_IdOrderBySharedOnDesc(Long userId);
-    List<FileShare> findAllByOwner_IdOrderBySharedOnDesc(Long ownerId);
+
+    // Which of these files are shared with the user, in one query rather than one per file
+    @Query("select s.file.id from FileShare s where s.sharedTo.id = :userId and s.file.id in :fileIds")
+    Set<Long> findFileIdsSharedWith(@Param("userId") Long userId, @Param("fileIds") Collection<Long> fileIds);
+
+    // Pairs of a batch share that already exist, in one query backed by uk_file_recipient
+    @Query("""
+            select new com.cloudshareoriginal.repository.ShareKey(s.file.id, s.sharedTo.id) from FileShare s
+            where s.file.id in :fileIds and s.sharedTo.id in :userIds""")
+    List<ShareKey> findExisting(@Param("fileIds") Collection<Long> fileIds, @Param("userIds") Collection<Long> userIds);
+
+    // Shares reference the file, so they go before it
+    @Modifying
+    @Query("delete from FileShare s where s.file.id in :fileIds")
+    int deleteAllByFileIds(@Param("fileIds") Collection<Long> fileIds);
+
+    @Modifying
+    @Query("delete from FileShare s where s.sharedTo.id = :userId")
+    int deleteAllSharedTo(@Param("userId") Long userId);
+
+    // The controller maps file, owner and recipient after the transaction has closed.
+    // Keyset pages in (sharedOn desc, id desc) order, backed by (shared_to_id|owner_id, shared_on, id).
+    // Only READY files are listed: shares of trashed files are kept for a restore, and a file
+    // still uploading has no object to hand out yet; the file is joined anyway.
+    @EntityGraph(attributePaths = {"file", "owner", "sharedTo"})
+    @Query("""
+            select s from FileShare s
+            where s.sharedTo.id = :userId and s.file.status = com.cloudshareoriginal.model.FileItem.Status.READY
+              and (s.sharedOn < :afterAt or (s.sharedOn = :afterAt and s.id < :afterId))
+            order by s.sharedOn desc, s.id desc""")
+    List<FileShare> findPageBySharedTo(@Param("userId") Long userId,
+                                       @Param("afterAt") Instant afterAt, @Param("afterId") Long afterId, Pageable page);
+
+    @EntityGraph(attributePaths = {"file", "owner", "sharedTo"})
+    @Query("""
+            select s from FileShare s
+            where s.owner.id = :ownerId and s.file.status = com.cloudshareoriginal.model.FileItem.Status.READY
+              and (s.sharedOn < :afterAt or (s.sharedOn = :afterAt and s.id < :afterId))
+            order by s.sharedOn desc, s.id desc""")
+    List<FileShare> findPageByOwner(@Param("ownerId") Long ownerId,
+                                    @Param("afterAt") Instant afterAt, @Param("afterId") Long afterId, Pageable page);
 }
\ No newline at end of file
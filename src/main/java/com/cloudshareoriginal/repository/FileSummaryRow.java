@@ -0,0 +1,23 @@
+package com.cloudshareoriginal.repository;
+
+import com.cloudshareoriginal.model.FileItem;
+
+import java.time.Instant;
+
+/**
+ * Read-only listing row, selected with a JPQL constructor expression. It is not an entity, so the
+ * rows never enter the persistence context: no snapshot for dirty checking, no owner proxy, and
+ * only the columns a listing shows are read.
+ */
+public record FileSummaryRow(
+        Long id,
+        String originalName,
+        String contentType,
+        Long size,
+        FileItem.Visibility visibility,
+        String s3Key,
+        String thumbnailUrl,
+        String previewUrl,
+        boolean favorite,
+        Instant createdAt) {
+}
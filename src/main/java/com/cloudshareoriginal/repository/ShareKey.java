@@ -0,0 +1,5 @@
+package com.cloudshareoriginal.repository;
+
+/** A (file, recipient) pair, unique among shares; selected with a constructor expression. */
+public record ShareKey(Long fileId, Long sharedToId) {
+}
@@ -0,0 +1,12 @@
+package com.cloudshareoriginal.repository;
+
+import java.time.Instant;
+
+/** Trash listing row; like {@link FileSummaryRow}, selected with a constructor expression. */
+public record TrashedFileRow(
+        Long id,
+        String originalName,
+        String contentType,
+        Long size,
+        Instant deletedAt) {
+}
@@ -2,10 +2,90 @@ package com.cloudshareoriginal.repository;
 
 import com.cloudshareoriginal.model.UserQuota;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.Optional;
 
 public interface UserQuotaRepository extends JpaRepository<UserQuota, Long> {
     Optional<UserQuota> findByUserId(Long userId);
     Optional<UserQuota> findBySubscriptionId(String subscriptionId);
+
+    @Modifying
+    @Query("delete from UserQuota q where q.user.id = :userId")
+    int deleteByUserId(@Param("userId") Long userId);
+
+    // Creates the row unless it exists; concurrent callers cannot insert a duplicate
+    @Modifying
+    @Query(value = """
+            insert into user_quota (user_id, limit_files, used_files, reserved_files,
+                                    limit_bytes, used_bytes, reserved_bytes, subscription_status)
+            values (:userId, :limitFiles, 0, 0, :limitBytes, 0, 0, 'inactive')
+            on duplicate key update user_id = user_id""", nativeQuery = true)
+    int insertIfAbsent(@Param("userId") Long userId, @Param("limitFiles") int limitFiles, @Param("limitBytes") long limitBytes);
+
+    // One-off repair for rows created before reserved_files existed: a NULL there makes the
+    // reserve check below NULL, so nothing could ever be reserved
+    @Modifying
+    @Query(value = "update user_quota set reserved_files = 0 where reserved_files is null", nativeQuery = true)
+    int backfillReservedFiles();
+
+    // Same for the byte counters; usage is summed from the owner's READY files
+    @Modifying
+    @Query(value = "update user_quota set reserved_bytes = 0 where reserved_bytes is null", nativeQuery = true)
+    int backfillReservedBytes();
+
+    @Modifying
+    @Query(value = """
+            update user_quota q set used_bytes = (
+                select coalesce(sum(f.size), 0) from file_items f where f.owner_id = q.user_id and f.status = 'READY')
+            where q.used_bytes is null""", nativeQuery = true)
+    int backfillUsedBytes();
+
+    // The limit follows the plan; a free row never ends up below what it already stores
+    @Modifying
+    @Query(value = """
+            update user_quota set limit_bytes = case
+                when subscription_status = 'active' then :subscriptionByteLimit
+                else greatest(:freeByteLimit, used_bytes + reserved_bytes) end
+            where limit_bytes is null""", nativeQuery = true)
+    int backfillLimitBytes(@Param("subscriptionByteLimit") long subscriptionByteLimit,
+                           @Param("freeByteLimit") long freeByteLimit);
+
+    // Fails (returns 0) when the files or bytes would not fit under the limits, or there is no row yet
+    @Modifying
+    @Query("""
+            update UserQuota q set q.reservedFiles = q.reservedFiles + :files, q.reservedBytes = q.reservedBytes + :bytes
+            where q.user.id = :userId
+              and q.usedFiles + q.reservedFiles + :files <= q.limitFiles
+              and q.usedBytes + q.reservedBytes + :bytes <= q.limitBytes""")
+    int reserve(@Param("userId") Long userId, @Param("files") int files, @Param("bytes") long bytes);
+
+    // Turns a reservation into usage. Stored bytes may differ from reserved ones (a stream is
+    // granted bytes in steps), and are counted even if the reservation was lost (say, the row was
+    // reset by hand), since the files exist either way
+    @Modifying
+    @Query("""
+            update UserQuota q set q.reservedFiles = case when q.reservedFiles > :files then q.reservedFiles - :files else 0 end,
+                                   q.usedFiles = q.usedFiles + :files,
+                                   q.reservedBytes = case when q.reservedBytes > :reservedBytes then q.reservedBytes - :reservedBytes else 0 end,
+                                   q.usedBytes = q.usedBytes + :storedBytes
+            where q.user.id = :userId""")
+    int commit(@Param("userId") Long userId, @Param("files") int files,
+               @Param("reservedBytes") long reservedBytes, @Param("storedBytes") long storedBytes);
+
+    @Modifying
+    @Query("""
+            update UserQuota q set q.reservedFiles = case when q.reservedFiles > :files then q.reservedFiles - :files else 0 end,
+                                   q.reservedBytes = case when q.reservedBytes > :bytes then q.reservedBytes - :bytes else 0 end
+            where q.user.id = :userId""")
+    int release(@Param("userId") Long userId, @Param("files") int files, @Param("bytes") long bytes);
+
+    @Modifying
+    @Query("""
+            update UserQuota q set q.usedFiles = case when q.usedFiles > :files then q.usedFiles - :files else 0 end,
+                                   q.usedBytes = case when q.usedBytes > :bytes then q.usedBytes - :bytes else 0 end
+            where q.user.id = :userId""")
+    int decrementUsed(@Param("userId") Long userId, @Param("files") int files, @Param("bytes") long bytes);
 }
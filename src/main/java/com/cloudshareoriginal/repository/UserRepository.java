@@ -2,16 +2,29 @@ package com.cloudshareoriginal.repository;
 
 import com.cloudshareoriginal.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     boolean existsByEmail(String email);
     Optional<User> findByEmail(String email);
+    List<User> findAllByEmailIn(Collection<String> emails);
     Optional<User> findByResetToken(String resetToken);
 
     List<User> findTop10ByEmailStartingWithIgnoreCase(String emailPrefix);
 
     List<User> findTop50ByIdNotOrderByEmailAsc(Long excludeUserId);
+
+    // Empty once the account is gone
+    @Query("select u.enabled from User u where u.id = :id")
+    Optional<Boolean> findEnabledById(@Param("id") Long id);
+
+    @Modifying
+    @Query("update User u set u.enabled = false where u.id = :id")
+    int disable(@Param("id") Long id);
 }
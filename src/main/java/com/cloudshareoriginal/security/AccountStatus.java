@@ -0,0 +1,44 @@
+package com.cloudshareoriginal.security;
+
+import com.cloudshareoriginal.repository.UserRepository;
+import com.cloudshareoriginal.utils.ExpiringCache;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Whether a token's account may still be used. Tokens carry everything else the filter needs, but
+ * an account that was disabled (for example because it is being deleted) must stop working before
+ * its tokens expire. The answer is cached briefly per user, so this costs one small query per
+ * active user per TTL instead of one per request.
+ */
+@Component
+@RequiredArgsConstructor
+public class AccountStatus {
+
+    private final UserRepository userRepository;
+
+    @Value("${security.account-status.cache-ms:30000}")
+    private long cacheMillis;
+
+    @Value("${security.account-status.cache-size:10000}")
+    private int cacheSize;
+
+    private ExpiringCache<Long, Boolean> active;
+
+    @PostConstruct
+    void init() {
+        active = new ExpiringCache<>(cacheSize, cacheMillis);
+    }
+
+    // Missing rows count as disabled: the account has been deleted
+    public boolean isActive(Long userId) {
+        return active.get(userId, id -> userRepository.findEnabledById(id).map(e -> !Boolean.FALSE.equals(e)).orElse(false));
+    }
+
+    /** Drops the cached answer, so this instance sees a change at once; others within the TTL. */
+    public void evict(Long userId) {
+        active.invalidate(userId);
+    }
+}
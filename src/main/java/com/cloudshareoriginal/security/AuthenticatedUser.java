@@ -0,0 +1,34 @@
+package com.cloudshareoriginal.security;
+
+import com.cloudshareoriginal.model.User;
+import org.springframework.security.core.AuthenticatedPrincipal;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The caller as the access token describes them; built by the JWT filter without touching the
+ * database. {@link #getName()} is the email, so {@code Authentication.getName()} keeps meaning
+ * what it always has.
+ */
+public record AuthenticatedUser(Long id, String email, String role, boolean emailVerified)
+        implements AuthenticatedPrincipal, Serializable {
+
+    public static AuthenticatedUser of(User user) {
+        return new AuthenticatedUser(user.getId(), user.getEmail(), user.getRole(), Boolean.TRUE.equals(user.getEmailVerified()));
+    }
+
+    @Override
+    public String getName() {
+        return email;
+    }
+
+    public List<GrantedAuthority> authorities() {
+        if (role == null || role.isBlank()) {
+            return List.of();
+        }
+        return List.of(new SimpleGrantedAuthority("ROLE_" + role.toUpperCase()));
+    }
+}
@@ -0,0 +1,85 @@
+package com.cloudshareoriginal.security;
+
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.function.Supplier;
+
+/**
+ * Who is calling. Most code only needs the id, which comes from the token for free; the full
+ * {@link User} row is loaded on first use and then kept for the rest of the request.
+ *
+ * <p>Outside a web request (background threads, tests that set the security context by hand)
+ * nothing is cached and a principal that is only an email is resolved with a lookup.
+ */
+@Component
+@RequiredArgsConstructor
+public class CurrentUser {
+
+    private static final String PRINCIPAL_ATTRIBUTE = CurrentUser.class.getName() + ".principal";
+    private static final String USER_ATTRIBUTE = CurrentUser.class.getName() + ".user";
+
+    private final UserRepository userRepository;
+
+    public AuthenticatedUser principal() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null) {
+            throw new AuthenticationCredentialsNotFoundException("Not authenticated");
+        }
+        Object principal = auth.getPrincipal();
+        if (principal instanceof AuthenticatedUser user) {
+            return user;
+        }
+        if (principal instanceof User user) {
+            return AuthenticatedUser.of(user);
+        }
+        return perRequest(PRINCIPAL_ATTRIBUTE, () -> AuthenticatedUser.of(findByEmail(auth.getName())));
+    }
+
+    public Long id() {
+        return principal().id();
+    }
+
+    /**
+     * The user as an unloaded proxy: enough for ownership checks, foreign keys and anything else
+     * that only reads the id. Reading any other field from it loads the row.
+     */
+    public User reference() {
+        return userRepository.getReferenceById(id());
+    }
+
+    /** The full row, loaded once per request. */
+    public User load() {
+        return perRequest(USER_ATTRIBUTE, () -> userRepository.findById(id()).orElseThrow());
+    }
+
+    // Tokens are issued before verification, so only a "false" claim has to be double-checked
+    public boolean emailVerified() {
+        return principal().emailVerified() || Boolean.TRUE.equals(load().getEmailVerified());
+    }
+
+    private User findByEmail(String email) {
+        return userRepository.findByEmail(email).orElseThrow();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T perRequest(String name, Supplier<T> loader) {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request == null) {
+            return loader.get();
+        }
+        T value = (T) request.getAttribute(name, RequestAttributes.SCOPE_REQUEST);
+        if (value == null) {
+            value = loader.get();
+            request.setAttribute(name, value, RequestAttributes.SCOPE_REQUEST);
+        }
+        return value;
+    }
+}
@@ -1,5 +1,6 @@
 package com.cloudshareoriginal.security;
 
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -8,6 +9,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -19,10 +21,12 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
     private final UserDetailsServiceImpl userDetailsService;
+    private final AccountStatus accountStatus;
 
-    public JwtAuthenticationFilter(JwtService jwtService, UserDetailsServiceImpl userDetailsService) {
+    public JwtAuthenticationFilter(JwtService jwtService, UserDetailsServiceImpl userDetailsService, AccountStatus accountStatus) {
         this.jwtService = jwtService;
         this.userDetailsService = userDetailsService;
+        this.accountStatus = accountStatus;
     }
 
     @Override
@@ -39,12 +43,29 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         }
 
         String token = authHeader.substring(7);
-        if (jwtService.isTokenValid(token)) {
-            String username = jwtService.extractUsername(token);
-            if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-                UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                        userDetails, null, userDetails.getAuthorities());
+        Claims claims = SecurityContextHolder.getContext().getAuthentication() == null ? jwtService.verify(token) : null;
+        if (claims != null) {
+            AuthenticatedUser principal = JwtService.principalOf(claims);
+            UsernamePasswordAuthenticationToken authToken;
+            if (principal != null && !accountStatus.isActive(principal.id())) {
+                // Disabled or deleted since the token was issued: carry on unauthenticated
+                authToken = null;
+            } else if (principal != null) {
+                // Everything we need is in the token; the user row is loaded later only if asked for
+                authToken = new UsernamePasswordAuthenticationToken(principal, null, principal.authorities());
+            } else {
+                // Token issued before ids were embedded: look the user up as before until it expires
+                UserDetails userDetails;
+                try {
+                    userDetails = userDetailsService.loadUserByUsername(claims.getSubject());
+                } catch (UsernameNotFoundException e) {
+                    userDetails = null;
+                }
+                authToken = userDetails != null && userDetails.isEnabled()
+                        ? new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities())
+                        : null;
+            }
+            if (authToken != null) {
                 authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                 SecurityContextHolder.getContext().setAuthentication(authToken);
             }
@@ -1,20 +1,27 @@
 package com.cloudshareoriginal.security;
 
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.utils.ExpiringCache;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.Base64;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
 
 @Service
 public class JwtService {
@@ -25,7 +32,17 @@ public class JwtService {
     @Value("${security.jwt.expiration:3600000}")
     private long jwtExpirationMs;
 
+    // Recently verified tokens; 0 turns the cache off
+    @Value("${security.jwt.verified-cache-size:10000}")
+    private int verifiedCacheSize;
+
+    private static final String CLAIM_USER_ID = "uid";
+    private static final String CLAIM_ROLE = "role";
+    private static final String CLAIM_EMAIL_VERIFIED = "email_verified";
+
     private SecretKey key;
+    private JwtParser parser;
+    private ExpiringCache<String, Claims> verified;
 
     @PostConstruct
     void init() {
@@ -33,44 +50,79 @@ public class JwtService {
             throw new IllegalStateException("security.jwt.secret must be at least 32 bytes");
         }
         this.key = Keys.hmacShaKeyFor(jwtSecret.getBytes(StandardCharsets.UTF_8));
+        // Immutable and thread-safe, so one instance serves every request
+        this.parser = Jwts.parser().verifyWith(key).build();
+        if (verifiedCacheSize > 0) {
+            this.verified = new ExpiringCache<>(verifiedCacheSize, jwtExpirationMs);
+        }
     }
 
-    public String generateToken(String subject, List<String> roles) {
+    /**
+     * Issues an access token for {@code user}. Besides the email (subject) it carries the id, role
+     * and verification state, so authenticating a request needs no database lookup.
+     */
+    public String generateToken(User user) {
         Instant now = Instant.now();
         Date issuedAt = Date.from(now);
         Date expiration = Date.from(now.plusMillis(jwtExpirationMs));
+        List<String> roles = user.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList();
         return Jwts.builder()
-                .subject(subject)
+                .subject(user.getEmail())
                 .issuedAt(issuedAt)
                 .expiration(expiration)
-                .claims(Map.of("roles", roles))
+                .claims(Map.of(
+                        "roles", roles,
+                        CLAIM_USER_ID, user.getId(),
+                        CLAIM_ROLE, user.getRole() != null ? user.getRole() : "",
+                        CLAIM_EMAIL_VERIFIED, Boolean.TRUE.equals(user.getEmailVerified())))
                 .signWith(key, Jwts.SIG.HS256)
                 .compact();
     }
 
-    public String extractUsername(String token) {
-        return extractClaim(token, Claims::getSubject);
+    /** The principal described by the claims, or null for tokens issued before they carried an id. */
+    public static AuthenticatedUser principalOf(Claims claims) {
+        Number userId = claims.get(CLAIM_USER_ID, Number.class);
+        if (userId == null) {
+            return null;
+        }
+        String role = claims.get(CLAIM_ROLE, String.class);
+        return new AuthenticatedUser(userId.longValue(), claims.getSubject(),
+                role == null || role.isEmpty() ? null : role,
+                Boolean.TRUE.equals(claims.get(CLAIM_EMAIL_VERIFIED, Boolean.class)));
     }
 
-    public boolean isTokenValid(String token) {
-        try {
-            Claims claims = parseAllClaims(token);
-            return claims.getExpiration() != null && claims.getExpiration().after(new Date());
-        } catch (Exception ex) {
-            return false;
+    /**
+     * The claims of {@code token} if it is correctly signed and not expired, otherwise null. The
+     * signature is checked once per token: a token seen again is recognised by its SHA-256 digest
+     * and its claims are reused until the token itself expires.
+     */
+    public Claims verify(String token) {
+        if (!StringUtils.hasText(token)) {
+            return null;
         }
+        Claims claims = verified != null
+                ? verified.get(digest(token), k -> parse(token), c -> c.getExpiration().getTime() - System.currentTimeMillis())
+                : parse(token);
+        // The cache drops entries at expiry on its own clock; this keeps the cutoff exact
+        return claims != null && claims.getExpiration().after(new Date()) ? claims : null;
     }
 
-    public <T> T extractClaim(String token, Function<Claims, T> resolver) {
-        Claims claims = parseAllClaims(token);
-        return resolver.apply(claims);
+    private Claims parse(String token) {
+        try {
+            Claims claims = parser.parseSignedClaims(token).getPayload();
+            return claims.getExpiration() != null ? claims : null;
+        } catch (JwtException | IllegalArgumentException ex) {
+            return null;
+        }
     }
 
-    private Claims parseAllClaims(String token) {
-        return Jwts.parser()
-                .verifyWith((javax.crypto.SecretKey) key)
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+    // The raw token is a bearer credential; only its digest is kept in memory
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 }
@@ -0,0 +1,243 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.model.AccountDeletion;
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.repository.AccountDeletionRepository;
+import com.cloudshareoriginal.repository.FileItemRepository;
+import com.cloudshareoriginal.repository.FileShareRepository;
+import com.cloudshareoriginal.repository.UserQuotaRepository;
+import com.cloudshareoriginal.repository.UserRepository;
+import com.cloudshareoriginal.security.AccountStatus;
+import com.cloudshareoriginal.security.CurrentUser;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deletes accounts in the background. The request only disables the account and records a job;
+ * a worker then removes the files a chunk at a time, each chunk in its own short transaction that
+ * also advances the job's checkpoint, and finally removes the user. Objects go with bulk S3 deletes
+ * after each chunk commits.
+ *
+ * <p>A worker holds a lease on the job and renews it with every checkpoint. If the process stops,
+ * the lease runs out and the job is picked up again where the last committed chunk left it; a
+ * chunk written under a lease that was lost in the meantime is rolled back.
+ */
+@Service
+@RequiredArgsConstructor
+public class AccountDeletionService {
+
+    private final AccountDeletionRepository accountDeletionRepository;
+    private final UserRepository userRepository;
+    private final FileItemRepository fileItemRepository;
+    private final FileShareRepository fileShareRepository;
+    private final UserQuotaRepository userQuotaRepository;
+    private final BlobService blobService;
+    private final S3Service s3Service;
+    private final TransactionTemplate transactionTemplate;
+    private final CurrentUser currentUsers;
+    private final AccountStatus accountStatus;
+
+    @Value("${app.account-deletion.chunk-size:500}")
+    private int chunkSize;
+
+    // How long a worker may go without a checkpoint before another one takes the job over
+    @Value("${app.account-deletion.lease-ms:300000}")
+    private long leaseMillis;
+
+    @Value("${app.account-deletion.threads:1}")
+    private int threads;
+
+    private ExecutorService deletionExecutor;
+
+    // Jobs queued or running on this instance
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void init() {
+        AtomicInteger seq = new AtomicInteger();
+        deletionExecutor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "account-deletion-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        deletionExecutor.shutdownNow();
+    }
+
+    /**
+     * Disables the caller's account and queues its deletion. Asking again returns the job that is
+     * already there.
+     */
+    @Transactional
+    public AccountDeletion request() {
+        User user = currentUsers.load();
+        Optional<AccountDeletion> existing = accountDeletionRepository.findByUserId(user.getId());
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+        // No new logins, and the filter stops accepting the account's tokens
+        userRepository.disable(user.getId());
+        AccountDeletion job = accountDeletionRepository.save(AccountDeletion.builder()
+                .userId(user.getId())
+                .token(UUID.randomUUID().toString())
+                .filesTotal(fileItemRepository.countByOwnerId(user.getId()))
+                .build());
+        Long jobId = job.getId();
+        Long userId = user.getId();
+        afterCommit(() -> {
+            accountStatus.evict(userId);
+            submit(jobId);
+        });
+        return job;
+    }
+
+    public Optional<AccountDeletion> findByToken(String token) {
+        return accountDeletionRepository.findByToken(token);
+    }
+
+    // Picks up jobs left behind by a restart, or whose worker failed and let the lease run out
+    @Scheduled(initialDelayString = "${app.account-deletion.resume-initial-delay-ms:30000}",
+            fixedDelayString = "${app.account-deletion.resume-interval-ms:60000}")
+    public void resumePending() {
+        try {
+            for (Long id : accountDeletionRepository.findClaimable(Instant.now())) {
+                submit(id);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Could not look for pending account deletions: " + e.getMessage());
+        }
+    }
+
+    private void submit(Long jobId) {
+        if (!inFlight.add(jobId)) {
+            return;
+        }
+        try {
+            deletionExecutor.execute(() -> {
+                try {
+                    run(jobId);
+                } finally {
+                    inFlight.remove(jobId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(jobId); // shutting down; the next start resumes it
+        }
+    }
+
+    /** Runs the job to the end unless another worker holds it. Package-private for tests. */
+    void run(Long jobId) {
+        String owner = UUID.randomUUID().toString();
+        Instant now = Instant.now();
+        Integer claimed = transactionTemplate.execute(tx ->
+                accountDeletionRepository.claim(jobId, owner, now, now.plusMillis(leaseMillis)));
+        if (claimed == null || claimed == 0) {
+            return;
+        }
+        Long userId = accountDeletionRepository.findById(jobId).orElseThrow().getUserId();
+        try {
+            boolean done = false;
+            while (!done) {
+                done = Boolean.TRUE.equals(transactionTemplate.execute(tx -> step(jobId, owner, userId)));
+            }
+        } catch (RuntimeException e) {
+            // Keeps the lease, so the retry waits for it to run out
+            System.err.println("Account deletion " + jobId + " stopped, will retry: " + e.getMessage());
+            String error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            transactionTemplate.executeWithoutResult(tx -> accountDeletionRepository.fail(jobId, owner,
+                    error.length() > 500 ? error.substring(0, 500) : error, Instant.now()));
+        }
+    }
+
+    // One chunk of files, or once they are all gone the account itself. Returns true when finished
+    private boolean step(Long jobId, String owner, Long userId) {
+        List<FileItem> files = fileItemRepository.findChunkForDelete(userId, PageRequest.of(0, Math.max(1, chunkSize)));
+        if (!files.isEmpty()) {
+            List<Long> ids = new ArrayList<>(files.size());
+            for (FileItem fi : files) {
+                ids.add(fi.getId());
+            }
+            fileShareRepository.deleteAllByFileIds(ids);
+            fileItemRepository.deleteUploadParts(ids);
+            fileItemRepository.deleteAllByOwner(userId, ids);
+            blobService.releaseAll(files);
+            checkpoint(jobId, owner, files.size(), AccountDeletion.Phase.FILES);
+            return false;
+        }
+
+        checkpoint(jobId, owner, 0, AccountDeletion.Phase.ACCOUNT);
+        fileShareRepository.deleteAllSharedTo(userId);
+        userQuotaRepository.deleteByUserId(userId);
+        userRepository.findById(userId).ifPresent(user -> {
+            deleteProfilePhoto(user);
+            // Fails if an upload that started before the account was disabled has just added a
+            // file; the retry deletes it first
+            userRepository.delete(user);
+        });
+        if (accountDeletionRepository.complete(jobId, owner, Instant.now()) == 0) {
+            throw new IllegalStateException("Lost the lease on account deletion " + jobId);
+        }
+        return true;
+    }
+
+    private void checkpoint(Long jobId, String owner, long files, AccountDeletion.Phase phase) {
+        Instant now = Instant.now();
+        if (accountDeletionRepository.checkpoint(jobId, owner, files, phase, now, now.plusMillis(leaseMillis)) == 0) {
+            throw new IllegalStateException("Lost the lease on account deletion " + jobId);
+        }
+    }
+
+    // Deleted before the row: deleting a missing object succeeds, so a retry is harmless
+    private void deleteProfilePhoto(User user) {
+        if (user.getProfileImageUrl() == null || user.getProfileImageUrl().isBlank()) {
+            return;
+        }
+        String key = s3Service.keyOf(user.getProfileImageUrl());
+        List<String> keys = new ArrayList<>(List.of(key));
+        if (user.getProfileAvatarUrl() != null) {
+            keys.add(ImageDerivativeService.derivedKey(key, ImageDerivativeService.AVATAR));
+        }
+        List<String> failed = s3Service.deleteObjects(keys);
+        if (!failed.isEmpty()) {
+            System.err.println("Failed to delete profile photo objects " + failed + " of user " + user.getId());
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,285 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.model.FileItem;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a ZIP of several files straight to the response. Nothing is staged on disk or in S3:
+ * entries are deflated as they are copied, and while one entry is being written the next few
+ * objects are already being opened and their first block fetched, so the client does not wait a
+ * full S3 round trip between files. Memory per archive is bounded by the read-ahead window times
+ * the prefetch block, however many or however large the files are.
+ */
+@Service
+@RequiredArgsConstructor
+public class ArchiveService {
+
+    public static final String ERRORS_ENTRY = "_errors.txt";
+
+    private final S3Service s3Service;
+    private final DownloadCounterService downloadCounterService;
+
+    @Value("${app.files.archive-prefetch-threads:8}")
+    private int prefetchThreads;
+
+    @Value("${app.files.archive-prefetch-queue:64}")
+    private int prefetchQueue;
+
+    // Objects opened ahead of the one being written; each also holds an S3 connection
+    @Value("${app.files.archive-read-ahead:4}")
+    private int readAhead;
+
+    @Value("${app.files.archive-prefetch-bytes:262144}")
+    private int prefetchBytes;
+
+    private ExecutorService prefetchExecutor;
+
+    @PostConstruct
+    void init() {
+        int threads = Math.max(1, prefetchThreads);
+        AtomicInteger seq = new AtomicInteger();
+        // When every prefetcher is busy the request thread opens the object itself
+        prefetchExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, prefetchQueue)), r -> {
+                    Thread t = new Thread(r, "zip-prefetch-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * Streams {@code files} into {@code out} as a ZIP. A file that cannot be read from S3 is left
+     * out and listed in {@value #ERRORS_ENTRY}; an IOException means the client went away.
+     */
+    public void writeArchive(List<FileItem> files, OutputStream out) throws IOException {
+        int window = Math.max(1, readAhead);
+        Deque<Slot> pending = new ArrayDeque<>(window + 1);
+        List<String> errors = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        byte[] buffer = new byte[64 * 1024];
+        int next = 0;
+
+        ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        try {
+            for (FileItem file : files) {
+                // Keep the window full: the current object plus readAhead more in flight
+                while (next < files.size() && pending.size() <= window) {
+                    FileItem upcoming = files.get(next++);
+                    Slot slot = new Slot();
+                    slot.future = prefetchExecutor.submit(() -> slot.offer(prefetch(upcoming)));
+                    pending.addLast(slot);
+                }
+
+                Prefetched item;
+                try {
+                    item = pending.removeFirst().future.get();
+                } catch (ExecutionException e) {
+                    errors.add(file.getOriginalName() + ": " + rootMessage(e));
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while building archive", e);
+                }
+
+                boolean complete = false;
+                try {
+                    ZipEntry entry = new ZipEntry(uniqueName(file, names));
+                    if (file.getCreatedAt() != null) {
+                        entry.setLastModifiedTime(FileTime.from(file.getCreatedAt()));
+                    }
+                    zip.setLevel(isCompressed(file.getContentType()) ? Deflater.NO_COMPRESSION : Deflater.BEST_SPEED);
+                    zip.putNextEntry(entry);
+                    zip.write(item.head, 0, item.headLength);
+                    if (item.rest != null) {
+                        String failure = copy(item.rest, zip, buffer);
+                        if (failure != null) {
+                            // Already partly written; the entry stays, truncated, and is reported
+                            errors.add(file.getOriginalName() + ": truncated, " + failure);
+                        } else {
+                            complete = true;
+                        }
+                    } else {
+                        complete = true;
+                    }
+                    zip.closeEntry();
+                    if (complete) {
+                        downloadCounterService.record(file.getId());
+                    }
+                } finally {
+                    item.close(complete);
+                }
+            }
+
+            if (!errors.isEmpty()) {
+                zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+                zip.putNextEntry(new ZipEntry(ERRORS_ENTRY));
+                zip.write(("These files could not be added:\n" + String.join("\n", errors) + "\n").getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+            zip.finish();
+        } finally {
+            // Client disconnects leave prefetched objects open; release their connections
+            for (Slot slot : pending) {
+                slot.future.cancel(false);
+                slot.abandon();
+            }
+        }
+    }
+
+    private Prefetched prefetch(FileItem file) throws IOException {
+        ResponseInputStream<GetObjectResponse> in = s3Service.getObject(s3Service.keyOf(file.getS3Key()), null, null);
+        boolean kept = false;
+        try {
+            long expected = file.getSize() != null ? file.getSize() : prefetchBytes;
+            byte[] head = new byte[(int) Math.max(1, Math.min(prefetchBytes, expected))];
+            int n = in.readNBytes(head, 0, head.length);
+            // Small files come back whole and give their connection back straight away
+            boolean exhausted = n < head.length || (file.getSize() != null && n >= file.getSize());
+            kept = !exhausted;
+            return new Prefetched(head, n, kept ? in : null);
+        } finally {
+            if (!kept) {
+                in.close();
+            }
+        }
+    }
+
+    // Returns a description of a read failure; failures writing to the client propagate
+    private static String copy(InputStream source, OutputStream target, byte[] buffer) throws IOException {
+        while (true) {
+            int n;
+            try {
+                n = source.read(buffer);
+            } catch (IOException e) {
+                return e.getMessage();
+            }
+            if (n < 0) {
+                return null;
+            }
+            target.write(buffer, 0, n);
+        }
+    }
+
+    private static String uniqueName(FileItem file, Set<String> used) {
+        String name = file.getOriginalName() == null ? "" : file.getOriginalName();
+        // No directories, no traversal, no control characters
+        name = name.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        while (name.startsWith(".")) {
+            name = name.substring(1);
+        }
+        if (name.isEmpty()) {
+            name = "file-" + file.getId();
+        }
+        String candidate = name;
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        for (int i = 2; !used.add(candidate.toLowerCase(Locale.ROOT)); i++) {
+            candidate = base + " (" + i + ")" + ext;
+        }
+        return candidate;
+    }
+
+    // Deflating these again costs CPU and gains nothing
+    static boolean isCompressed(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String t = contentType.split(";")[0].trim().toLowerCase(Locale.ROOT);
+        if (t.startsWith("image/")) {
+            return !t.equals("image/svg+xml") && !t.equals("image/bmp");
+        }
+        return t.startsWith("video/") || t.startsWith("audio/")
+                || t.contains("zip") || t.contains("compressed") || t.contains("openxmlformats")
+                || t.equals("application/pdf") || t.equals("application/x-7z-compressed")
+                || t.equals("application/vnd.rar") || t.equals("application/x-rar-compressed");
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable cause = e;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    /**
+     * Hands a prefetched object to the writer. If the writer has already given up (client gone),
+     * whichever side comes second releases the stream, so a prefetch still running at that moment
+     * cannot leak its connection.
+     */
+    private static final class Slot {
+        private Future<Prefetched> future;
+        private Prefetched value;
+        private boolean abandoned;
+
+        synchronized Prefetched offer(Prefetched p) {
+            if (abandoned) {
+                p.close(false);
+            } else {
+                value = p;
+            }
+            return p;
+        }
+
+        synchronized void abandon() {
+            abandoned = true;
+            if (value != null) {
+                value.close(false);
+                value = null;
+            }
+        }
+    }
+
+    // First block of an object, plus the still-open remainder unless the block was all of it
+    private record Prefetched(byte[] head, int headLength, ResponseInputStream<GetObjectResponse> rest) {
+
+        void close(boolean complete) {
+            if (rest == null) {
+                return;
+            }
+            if (!complete) {
+                rest.abort(); // otherwise close() would drain the rest of the object from S3
+            }
+            try {
+                rest.close();
+            } catch (IOException ignored) {
+                // nothing left to release
+            }
+        }
+    }
+}
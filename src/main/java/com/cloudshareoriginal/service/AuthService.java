@@ -10,8 +10,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.DisabledException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
@@ -68,8 +68,7 @@ public class AuthService {
         userRepository.save(saved);
         mailService.sendEmailVerification(saved.getEmail(), verificationCode);
 
-        String token = jwtService.generateToken(saved.getUsername(), saved.getAuthorities()
-                .stream().map(GrantedAuthority::getAuthority).toList());
+        String token = jwtService.generateToken(saved);
         return new AuthResponse(token);
     }
 
@@ -81,11 +80,12 @@ public class AuthService {
             );
         } catch (BadCredentialsException ex) {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid credentials");
+        } catch (DisabledException ex) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Account is disabled");
         }
         User user = userRepository.findByEmail(email)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid credentials"));
-        String token = jwtService.generateToken(user.getUsername(),
-                user.getAuthorities().stream().map(a -> a.getAuthority()).toList());
+        String token = jwtService.generateToken(user);
         return new AuthResponse(token);
     }
 
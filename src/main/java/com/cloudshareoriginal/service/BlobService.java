@@ -0,0 +1,238 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.model.Blob;
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.repository.BlobRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Reference-counted, content-addressed storage. FileItems point at a Blob; identical uploads share
+ * one S3 object, which is deleted when the last reference is released.
+ */
+@Service
+@RequiredArgsConstructor
+public class BlobService {
+
+    private final BlobRepository blobRepository;
+    private final S3Service s3Service;
+    private final ImageDerivativeService imageDerivativeService;
+
+    /**
+     * Registers a freshly uploaded object. If a blob with the same hash already exists the new
+     * object is dropped and the existing blob gains a reference instead. Any user's blob may be
+     * reused here, since the bytes were actually received.
+     */
+    @Transactional
+    public Blob store(S3Service.StoredObject stored, String contentType) {
+        Optional<Blob> existing = acquireExisting(stored.getSha256(), stored.getSize());
+        if (existing.isPresent()) {
+            deleteObjectAfterCommit(stored.getKey());
+            return existing.get();
+        }
+        if (stored.getSha256() == null) {
+            return storeUnhashed(stored.getKey(), stored.getSize(), contentType);
+        }
+        String sha256 = stored.getSha256().toLowerCase();
+        blobRepository.insertIfAbsent(sha256, stored.getKey(), stored.getSize(), contentType, Instant.now());
+        Blob blob = blobRepository.findFirstBySha256AndSizeOrderByIdAsc(sha256, stored.getSize()).orElseThrow();
+        if (blob.getS3Key().equals(stored.getKey())) {
+            return blob;
+        }
+        // A concurrent upload of the same content got there first
+        if (blobRepository.acquire(blob.getId()) == 1) {
+            deleteObjectAfterCommit(stored.getKey());
+            return blob;
+        }
+        // ...and that blob is being removed; keep our copy without the hash
+        return storeUnhashed(stored.getKey(), stored.getSize(), contentType);
+    }
+
+    // For objects uploaded straight to S3, whose bytes we never saw and so cannot hash
+    @Transactional
+    public Blob storeUnhashed(String key, Long size, String contentType) {
+        return blobRepository.save(Blob.builder()
+                .s3Key(key)
+                .size(size)
+                .contentType(contentType)
+                .build());
+    }
+
+    /**
+     * Takes a new reference on the blob with this content, if the owner already holds it through
+     * one of their own files. Knowing a hash is not proof of having the bytes, so another user's
+     * content is never handed out this way.
+     */
+    @Transactional
+    public Optional<Blob> acquireOwned(Long ownerId, String sha256, long size) {
+        if (sha256 == null) {
+            return Optional.empty();
+        }
+        return blobRepository.findOwned(ownerId, sha256.toLowerCase(), size)
+                .filter(b -> blobRepository.acquire(b.getId()) == 1);
+    }
+
+    /**
+     * Takes a new reference on the blob with this content, if there is one.
+     */
+    @Transactional
+    public Optional<Blob> acquireExisting(String sha256, long size) {
+        if (sha256 == null) {
+            return Optional.empty();
+        }
+        return blobRepository.findFirstBySha256AndSizeOrderByIdAsc(sha256.toLowerCase(), size)
+                .filter(b -> blobRepository.acquire(b.getId()) == 1);
+    }
+
+    /**
+     * Releases whatever storage a FileItem holds: its blob reference, a pending multipart upload,
+     * or (for rows that predate blobs) the object itself. S3 deletes and aborts run after the commit.
+     */
+    @Transactional
+    public void release(FileItem fi) {
+        Blob blob = fi.getBlob();
+        boolean derived = fi.getThumbnailUrl() != null || fi.getPreviewUrl() != null;
+        if (blob != null) {
+            String key = blob.getS3Key(); // read while the row still exists; the blob may be a lazy proxy
+            blobRepository.release(blob.getId());
+            if (blobRepository.deleteIfUnreferenced(blob.getId()) == 1) {
+                deleteObjectAfterCommit(key, derived);
+            }
+        } else if (fi.getMultipartUploadId() != null) {
+            abortMultipartAfterCommit(s3Service.keyOf(fi.getS3Key()), fi.getMultipartUploadId());
+        } else {
+            deleteObjectAfterCommit(s3Service.keyOf(fi.getS3Key()), derived);
+        }
+    }
+
+    /**
+     * {@link #release} for many files at once: blob references are dropped with one update per
+     * distinct reference count, and every object that becomes unreferenced, with its renditions,
+     * is removed by bulk S3 deletes after the commit.
+     */
+    @Transactional
+    public void releaseAll(Collection<FileItem> files) {
+        Map<Long, Long> refs = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        List<String> derivedSources = new ArrayList<>();
+        Set<Long> derivedBlobs = new HashSet<>();
+        for (FileItem fi : files) {
+            boolean derived = fi.getThumbnailUrl() != null || fi.getPreviewUrl() != null;
+            Blob blob = fi.getBlob();
+            if (blob != null) {
+                refs.merge(blob.getId(), 1L, Long::sum);
+                if (derived) {
+                    derivedBlobs.add(blob.getId());
+                }
+            } else if (fi.getMultipartUploadId() != null) {
+                abortMultipartAfterCommit(s3Service.keyOf(fi.getS3Key()), fi.getMultipartUploadId());
+            } else {
+                String key = s3Service.keyOf(fi.getS3Key());
+                keys.add(key);
+                if (derived) {
+                    derivedSources.add(key);
+                }
+            }
+        }
+
+        if (!refs.isEmpty()) {
+            // Nearly always a single group: batches rarely hold two files with the same content
+            Map<Long, List<Long>> byCount = new HashMap<>();
+            refs.forEach((id, n) -> byCount.computeIfAbsent(n, c -> new ArrayList<>()).add(id));
+            byCount.forEach((n, ids) -> blobRepository.releaseAll(ids, n));
+
+            List<Blob> unreferenced = blobRepository.findAllUnreferenced(refs.keySet());
+            if (!unreferenced.isEmpty()) {
+                blobRepository.deleteAllUnreferenced(refs.keySet());
+                for (Blob blob : unreferenced) {
+                    keys.add(blob.getS3Key());
+                    if (derivedBlobs.contains(blob.getId())) {
+                        derivedSources.add(blob.getS3Key());
+                    }
+                }
+            }
+        }
+        for (String source : derivedSources) {
+            for (String variant : List.of(ImageDerivativeService.AVATAR, ImageDerivativeService.THUMBNAIL,
+                    ImageDerivativeService.PREVIEW)) {
+                keys.add(ImageDerivativeService.derivedKey(source, variant));
+            }
+        }
+        deleteObjectsAfterCommit(keys);
+    }
+
+    private void abortMultipartAfterCommit(String key, String uploadId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            s3Service.abortMultipart(key, uploadId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                s3Service.abortMultipart(key, uploadId);
+            }
+        });
+    }
+
+    private void deleteObjectsAfterCommit(List<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            s3Service.deleteObjects(keys);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                s3Service.deleteObjects(keys);
+            }
+        });
+    }
+
+    private void deleteObjectAfterCommit(String key) {
+        deleteObjectAfterCommit(key, false);
+    }
+
+    // withDerivatives also removes the thumbnail/preview renditions stored under the key
+    private void deleteObjectAfterCommit(String key, boolean withDerivatives) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            deleteQuietly(key, withDerivatives);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                deleteQuietly(key, withDerivatives);
+            }
+        });
+    }
+
+    private void deleteQuietly(String key, boolean withDerivatives) {
+        deleteQuietly(key);
+        if (withDerivatives) {
+            imageDerivativeService.deleteDerivatives(key);
+        }
+    }
+
+    private void deleteQuietly(String key) {
+        try {
+            s3Service.deleteObject(key);
+        } catch (Exception e) {
+            System.err.println("Failed to delete S3 object " + key + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.cloudshareoriginal.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind download counting. A hit only bumps an in-memory {@link LongAdder}, so a popular
+ * public file costs no row lock per download; the accumulated deltas are added to
+ * {@code file_items.download_count} in one JDBC batch every few seconds and on shutdown.
+ * A crash loses at most one flush interval of counts, which is fine for a statistic.
+ */
+@Service
+@RequiredArgsConstructor
+public class DownloadCounterService {
+
+    private static final String FLUSH_SQL =
+            "update file_items set download_count = coalesce(download_count, 0) + ? where id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Long, LongAdder> pending = new ConcurrentHashMap<>();
+
+    // When the oldest count still waiting for a flush was recorded; 0 when nothing is waiting
+    private final AtomicLong oldestPendingMillis = new AtomicLong();
+
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("cloudshare.downloads.flush.lag", this, s -> s.flushLagSeconds())
+                .description("Age of the oldest download count not yet written to the database")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("cloudshare.downloads.pending.files", pending, Map::size)
+                .description("Files with unflushed download counts")
+                .register(meterRegistry);
+    }
+
+    public void record(Long fileId) {
+        if (fileId == null) {
+            return;
+        }
+        pending.computeIfAbsent(fileId, id -> new LongAdder()).increment();
+        oldestPendingMillis.compareAndSet(0, System.currentTimeMillis());
+    }
+
+    @Scheduled(fixedDelayString = "${app.files.download-count-flush-ms:5000}")
+    public void flush() {
+        long since = oldestPendingMillis.getAndSet(0);
+        // Sorted so concurrent flushes from several instances lock rows in the same order
+        TreeMap<Long, Long> deltas = new TreeMap<>();
+        for (Map.Entry<Long, LongAdder> e : pending.entrySet()) {
+            long delta = e.getValue().sumThenReset();
+            if (delta > 0) {
+                deltas.put(e.getKey(), delta);
+            } else if (pending.remove(e.getKey(), e.getValue())) {
+                // Idle adders are dropped so the map only holds recently downloaded files; a hit
+                // that raced with the removal is carried into the next flush
+                long late = e.getValue().sumThenReset();
+                if (late > 0) {
+                    pending.computeIfAbsent(e.getKey(), id -> new LongAdder()).add(late);
+                }
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> args = new ArrayList<>(deltas.size());
+        deltas.forEach((id, delta) -> args.add(new Object[]{delta, id}));
+        try {
+            jdbcTemplate.batchUpdate(FLUSH_SQL, args);
+        } catch (RuntimeException e) {
+            // Put the counts back; they go out with the next flush
+            deltas.forEach((id, delta) -> pending.computeIfAbsent(id, k -> new LongAdder()).add(delta));
+            oldestPendingMillis.compareAndSet(0, since != 0 ? since : System.currentTimeMillis());
+            System.err.println("Failed to flush download counts for " + deltas.size() + " files: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        flush();
+    }
+
+    private double flushLagSeconds() {
+        long since = oldestPendingMillis.get();
+        return since == 0 ? 0 : (System.currentTimeMillis() - since) / 1000.0;
+    }
+}
@@ -1,165 +1,914 @@
 package com.cloudshareoriginal.service;
 
 import com.cloudshareoriginal.dto.files.*;
+import com.cloudshareoriginal.model.Blob;
 import com.cloudshareoriginal.model.FileItem;
 import com.cloudshareoriginal.model.FileShare;
+import com.cloudshareoriginal.model.UploadPart;
 import com.cloudshareoriginal.model.User;
 import com.cloudshareoriginal.repository.FileItemRepository;
 import com.cloudshareoriginal.repository.FileShareRepository;
+import com.cloudshareoriginal.repository.FileSummaryRow;
+import com.cloudshareoriginal.repository.ShareKey;
+import com.cloudshareoriginal.repository.TrashedFileRow;
 import com.cloudshareoriginal.repository.UserRepository;
+import com.cloudshareoriginal.security.CurrentUser;
+import com.cloudshareoriginal.utils.EmailUtils;
+import com.cloudshareoriginal.utils.KeysetCursor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 
 @Service
 @RequiredArgsConstructor
 public class FileService {
 
     private final S3Service s3Service;
+    private final BlobService blobService;
+    private final ImageDerivativeService imageDerivativeService;
     private final UserRepository userRepository;
     private final FileItemRepository fileItemRepository;
     private final FileShareRepository fileShareRepository;
     private final QuotaService quotaService;
+    private final TransactionTemplate transactionTemplate;
+    private final CurrentUser currentUsers;
+    private final JdbcTemplate jdbcTemplate;
+
+    private static final Pattern SINGLE_RANGE = Pattern.compile("bytes=(\\d+-\\d*|-\\d+)");
+
+    // Written past Hibernate, which cannot batch inserts into an IDENTITY table. shared_on is an
+    // Instant column, stored in UTC like Hibernate does.
+    private static final String INSERT_SHARE_SQL =
+            "insert into file_shares (file_id, owner_id, shared_to_id, shared_on) values (?, ?, ?, ?)";
 
     @Value("${app.files.max-per-upload:5}")
     private int maxFilesPerUpload;
 
     @Getter
-    @Value("${app.files.max-size-bytes:10485760}")
+    @Value("${app.files.max-size-bytes:5368709120}")
     private long maxFileSizeBytes;
 
+    @Value("${app.files.page-size-max:200}")
+    private int maxPageSize;
+
+    @Value("${app.files.delete-batch-max:5000}")
+    private int maxDeleteBatch;
+
+    // Files times recipients in one /share-batch request
+    @Value("${app.files.share-batch-max:1000}")
+    private int maxShareBatch;
+
+    @Value("${app.files.share-insert-batch:500}")
+    private int shareInsertBatch;
+
+    @Value("${app.files.archive-max-files:1000}")
+    private int maxArchiveFiles;
+
+    @Value("${app.files.batch-upload-threads:4}")
+    private int batchUploadThreads;
+
+    @Value("${app.files.batch-upload-queue:64}")
+    private int batchUploadQueue;
+
+    // Kept apart from the S3 part pool: batch tasks block on their parts, so sharing it could deadlock
+    private ExecutorService batchUploadExecutor;
+
+    @PostConstruct
+    void init() {
+        int threads = Math.max(1, batchUploadThreads);
+        AtomicInteger seq = new AtomicInteger();
+        // When the queue is full the request thread runs the transfer itself, which throttles intake
+        batchUploadExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, batchUploadQueue)), r -> {
+                    Thread t = new Thread(r, "batch-upload-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        batchUploadExecutor.shutdown();
+    }
+
+    // Id-only proxy: every use here is an ownership check, a foreign key or a quota lookup
     private User currentUser() {
-        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-        String email = auth.getName();
-        return userRepository.findByEmail(email).orElseThrow();
+        return currentUsers.reference();
     }
 
     @Transactional(readOnly = true)
-    public List<FileItem> list(FileItem.Visibility visibility) {
+    public CursorPage<FileSummaryRow> list(FileItem.Visibility visibility, String cursor, int limit) {
         User user = currentUser();
         if (visibility == null) {
-            return fileItemRepository.findAllByOwnerIdOrderByCreatedAtDesc(user.getId());
+            return filePage(cursor, limit, (after, page) -> fileItemRepository.findSummaryPageByOwner(
+                    user.getId(), FileItem.Status.READY, after.at(), after.id(), page));
         }
-        return fileItemRepository.findAllByOwnerIdAndVisibilityOrderByCreatedAtDesc(user.getId(), visibility);
+        return filePage(cursor, limit, (after, page) -> fileItemRepository.findSummaryPageByOwnerAndVisibility(
+                user.getId(), visibility, FileItem.Status.READY, after.at(), after.id(), page));
     }
 
     @Transactional(readOnly = true)
-    public List<FileItem> listFavorites() {
+    public CursorPage<FileSummaryRow> listFavorites(String cursor, int limit) {
         User user = currentUser();
-        return fileItemRepository.findAllByOwnerIdAndFavoriteTrueOrderByCreatedAtDesc(user.getId());
+        return filePage(cursor, limit, (after, page) -> fileItemRepository.findFavoriteSummaryPageByOwner(
+                user.getId(), FileItem.Status.READY, after.at(), after.id(), page));
     }
 
     @Transactional
     public FileItem setFavorite(Long id, boolean favorite) {
         User user = currentUser();
-        FileItem fi = fileItemRepository.findByIdAndOwnerId(id, user.getId())
-                .orElseThrow(() -> new IllegalArgumentException("File not found"));
+        FileItem fi = findLive(id, user);
         fi.setFavorite(favorite);
         return fileItemRepository.save(fi);
     }
 
     @Transactional(readOnly = true)
-    public List<FileItem> listByUserId(Long userId) {
+    public CursorPage<FileSummaryRow> listByUserId(Long userId, String cursor, int limit) {
         // Only return public files for other users, all files for self
         User current = currentUser();
         if (current.getId().equals(userId)) {
-            return fileItemRepository.findAllByOwnerIdOrderByCreatedAtDesc(userId);
+            return filePage(cursor, limit, (after, page) -> fileItemRepository.findSummaryPageByOwner(
+                    userId, FileItem.Status.READY, after.at(), after.id(), page));
         } else {
-            return fileItemRepository.findAllByOwnerIdAndVisibilityOrderByCreatedAtDesc(userId, FileItem.Visibility.PUBLIC);
+            return filePage(cursor, limit, (after, page) -> fileItemRepository.findSummaryPageByOwnerAndVisibility(
+                    userId, FileItem.Visibility.PUBLIC, FileItem.Status.READY, after.at(), after.id(), page));
         }
     }
 
     @Transactional
     public FileItem toggleVisibility(Long id, FileItem.Visibility visibility) {
         User user = currentUser();
-        FileItem fi = fileItemRepository.findByIdAndOwnerId(id, user.getId())
-                .orElseThrow(() -> new IllegalArgumentException("File not found"));
+        FileItem fi = findLive(id, user);
         fi.setVisibility(visibility);
         return fileItemRepository.save(fi);
     }
 
+    /**
+     * Moves a file to the trash: one status update, no storage work. The purger removes it for good
+     * once the retention period has passed; until then it can be restored. Trashed files do not
+     * count against the quota. An unfinished upload has nothing to keep and is removed at once.
+     */
     @Transactional
     public void delete(Long id) {
         User user = currentUser();
-        FileItem fi = fileItemRepository.findByIdAndOwnerId(id, user.getId())
+        // Locked, so a racing delete or restore cannot move the quota twice
+        FileItem fi = fileItemRepository.findByIdForUpdate(id)
+                .filter(f -> f.getOwner().getId().equals(user.getId()) && f.getStatus() != FileItem.Status.DELETED)
                 .orElseThrow(() -> new IllegalArgumentException("File not found"));
 
-        // Actually delete from S3
-        s3Service.deleteObject(extractS3Key(fi.getS3Key()));
+        if (fi.getStatus() == FileItem.Status.UPLOADING) {
+            removeUploads(user, List.of(fi));
+            return;
+        }
+        fileItemRepository.moveToTrash(user.getId(), List.of(id), Instant.now());
+        quotaService.decrementUsed(user, 1, sizeOf(fi));
+    }
 
-        // Remove from database
-        fileItemRepository.delete(fi);
+    /**
+     * Moves many files to the trash in one transaction: one locking query checks ownership, one
+     * bulk update flips the status, and the quota moves once by the total. Unfinished uploads among
+     * them are removed outright. Ids the caller does not own are reported as not found; files
+     * already in the trash count as deleted.
+     */
+    @Transactional
+    public BatchDeleteResponse deleteBatch(List<Long> ids) {
+        Set<Long> wanted = new LinkedHashSet<>(ids);
+        wanted.remove(null);
+        if (wanted.isEmpty()) {
+            throw new IllegalArgumentException("No file ids given");
+        }
+        if (wanted.size() > maxDeleteBatch) {
+            throw new IllegalArgumentException("At most " + maxDeleteBatch + " files can be deleted at once");
+        }
+        User user = currentUser();
+        List<FileItem> files = fileItemRepository.findAllForDelete(user.getId(), wanted);
+
+        List<Long> found = new ArrayList<>(files.size());
+        List<Long> ready = new ArrayList<>();
+        List<FileItem> uploading = new ArrayList<>();
+        long readyBytes = 0;
+        for (FileItem fi : files) {
+            found.add(fi.getId());
+            if (fi.getStatus() == FileItem.Status.UPLOADING) {
+                uploading.add(fi);
+            } else if (fi.getStatus() == FileItem.Status.READY) {
+                ready.add(fi.getId());
+                readyBytes += sizeOf(fi);
+            }
+        }
+        List<Long> notFound = new ArrayList<>(wanted);
+        notFound.removeAll(new HashSet<>(found));
 
-        // Update quota
-        quotaService.decrementUsed(user, 1);
+        if (!ready.isEmpty()) {
+            fileItemRepository.moveToTrash(user.getId(), ready, Instant.now());
+            quotaService.decrementUsed(user, ready.size(), readyBytes);
+        }
+        if (!uploading.isEmpty()) {
+            removeUploads(user, uploading);
+        }
+        return BatchDeleteResponse.builder().deleted(found.size()).deletedIds(found).notFound(notFound).build();
     }
 
-    // Helper to extract S3 key from URL if needed
-    private String extractS3Key(String s3UrlOrKey) {
-        if (s3UrlOrKey.startsWith("https://")) {
-            int idx = s3UrlOrKey.lastIndexOf("/");
-            return idx != -1 ? s3UrlOrKey.substring(idx + 1) : s3UrlOrKey;
+    // Unfinished uploads skip the trash: rows go now, objects after the commit, reservations are returned
+    private void removeUploads(User user, List<FileItem> files) {
+        List<Long> ids = new ArrayList<>(files.size());
+        long bytes = 0;
+        for (FileItem fi : files) {
+            ids.add(fi.getId());
+            bytes += sizeOf(fi);
         }
-        return s3UrlOrKey;
+        // Children first, then the files; the blob rows can only go once nothing points at them
+        fileShareRepository.deleteAllByFileIds(ids);
+        fileItemRepository.deleteUploadParts(ids);
+        fileItemRepository.deleteAllByOwner(user.getId(), ids);
+        blobService.releaseAll(files);
+        quotaService.release(user, files.size(), bytes);
     }
 
+    @Transactional(readOnly = true)
+    public CursorPage<TrashedFileRow> listTrash(String cursor, int limit) {
+        User user = currentUser();
+        return page(cursor, limit, (after, page) -> fileItemRepository.findTrashPage(user.getId(), after.at(), after.id(), page),
+                f -> new KeysetCursor(f.deletedAt(), f.id()));
+    }
+
+    /**
+     * Takes a file back out of the trash. It counts against the quota again, so this fails when
+     * the quota is full.
+     */
     @Transactional
+    public void restore(Long id) {
+        User user = currentUser();
+        FileItem fi = fileItemRepository.findByIdForUpdate(id)
+                .filter(f -> f.getOwner().getId().equals(user.getId()) && f.getStatus() == FileItem.Status.DELETED)
+                .orElseThrow(() -> new IllegalArgumentException("File not found in trash"));
+        if (!quotaService.reserve(user, 1, sizeOf(fi))) {
+            throw new IllegalStateException("Not enough storage quota to restore this file");
+        }
+        fileItemRepository.restoreFromTrash(user.getId(), id, Instant.now());
+        quotaService.commit(user, 1, sizeOf(fi), sizeOf(fi));
+    }
+
+    /** Empties the trash: every entry is handed to the next purge run. Returns how many there were. */
+    @Transactional
+    public int emptyTrash() {
+        return fileItemRepository.expireTrash(currentUser().getId(), Instant.EPOCH);
+    }
+
+    /**
+     * Uploads in three steps so no DB connection is held while bytes are in flight: a short
+     * transaction reserves quota and writes an UPLOADING row, the S3 transfer runs with no
+     * transaction open, and a second short transaction marks the row READY or undoes the reservation.
+     */
     public FileItem uploadFile(MultipartFile file) {
+        if (file.getSize() > maxFileSizeBytes) {
+            throw new IllegalArgumentException("File too large: " + file.getOriginalFilename());
+        }
+        FileItem pending = reserve(Collections.singletonList(file.getOriginalFilename()),
+                Collections.singletonList(file.getContentType()), List.of(file.getSize())).get(0);
+        InputStream in;
+        try {
+            in = file.getInputStream();
+        } catch (IOException e) {
+            discardPending(pending.getId(), file.getSize());
+            throw new RuntimeException("Failed to read upload: " + e.getMessage(), e);
+        }
+        try (in) {
+            return transfer(pending, in, file.getSize());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read upload: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stores a file whose length is not known up front, reading {@code in} exactly once.
+     * The stream goes straight into the S3 part pipeline, so nothing is spooled locally.
+     */
+    public FileItem uploadStream(String originalName, String contentType, InputStream in) {
+        FileItem pending = reserve(Collections.singletonList(originalName), Collections.singletonList(contentType),
+                Collections.singletonList(0L)).get(0);
+        return transfer(pending, in, 0);
+    }
+
+    /**
+     * Uploads up to {@code maxFilesPerUpload} files in one request. Quota for the whole batch is
+     * reserved up front, the transfers run concurrently, and each failed file gives its slot back.
+     */
+    public List<BatchResult> uploadBatch(List<MultipartFile> files) {
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No files to upload");
+        }
+        if (files.size() > maxFilesPerUpload) {
+            throw new IllegalArgumentException("At most " + maxFilesPerUpload + " files can be uploaded at once");
+        }
+        List<String> names = new ArrayList<>();
+        List<String> contentTypes = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        for (MultipartFile file : files) {
+            if (file.getSize() > maxFileSizeBytes) {
+                throw new IllegalArgumentException("File too large: " + file.getOriginalFilename());
+            }
+            names.add(file.getOriginalFilename());
+            contentTypes.add(file.getContentType());
+            sizes.add(file.getSize());
+        }
+        List<FileItem> pending = reserve(names, contentTypes, sizes);
+
+        List<Future<FileItem>> transfers = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            MultipartFile file = files.get(i);
+            FileItem fi = pending.get(i);
+            transfers.add(batchUploadExecutor.submit(() -> {
+                InputStream in;
+                try {
+                    in = file.getInputStream();
+                } catch (IOException e) {
+                    discardPending(fi.getId(), file.getSize());
+                    throw e;
+                }
+                try (in) {
+                    return transfer(fi, in, file.getSize());
+                }
+            }));
+        }
+
+        List<BatchResult> results = new ArrayList<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            String name = pending.get(i).getOriginalName();
+            try {
+                results.add(new BatchResult(name, transfers.get(i).get(), null));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                String reason = cause instanceof ResponseStatusException rse ? rse.getReason() : cause.getMessage();
+                results.add(new BatchResult(name, null, reason));
+            } catch (InterruptedException e) {
+                // Transfers still running finish (or roll back) on their own
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for batch upload", e);
+            }
+        }
+        return results;
+    }
+
+    // Step 1: quota reservation and UPLOADING rows in one short transaction. Bytes are reserved for
+    // the sizes the client announced (0 when unknown); the stream reserves the rest as it arrives.
+    private List<FileItem> reserve(List<String> originalNames, List<String> contentTypes, List<Long> sizes) {
+        return transactionTemplate.execute(tx -> {
+            User user = currentUser();
+            reserveUploadQuota(user, originalNames.size(), sizes.stream().mapToLong(n -> Math.max(0, n)).sum());
+            List<FileItem> pending = new ArrayList<>();
+            for (int i = 0; i < originalNames.size(); i++) {
+                String originalName = originalNames.get(i);
+                String name = (originalName == null || originalName.isBlank()) ? "file" : originalName;
+                String key = s3Service.generateKey(user.getId(), name);
+                pending.add(fileItemRepository.save(FileItem.builder()
+                        .owner(user)
+                        .originalName(name)
+                        .s3Key(s3Service.publicUrl(key))
+                        .contentType(contentTypes.get(i))
+                        .visibility(FileItem.Visibility.PRIVATE)
+                        .status(FileItem.Status.UPLOADING)
+                        .build()));
+            }
+            return pending;
+        });
+    }
+
+    // Steps 2 and 3: the S3 transfer outside any transaction, then a short one to mark the row READY.
+    // The stream is inspected on the way through, so an oversize or mislabelled file, or one that
+    // would go over the storage quota, never lands in S3.
+    private FileItem transfer(FileItem pending, InputStream in, long reservedBytes) {
+        User owner = pending.getOwner();
+        long[] held = {Math.max(0, reservedBytes)};
+        UploadPipeline inspected;
+        S3Service.StoredObject stored;
+        try {
+            inspected = UploadPipeline.from(in)
+                    .limit(maxFileSizeBytes)
+                    .allowance(held[0], atLeast -> {
+                        long granted = quotaService.reserveStreamBytes(owner, atLeast);
+                        held[0] += granted;
+                        return granted;
+                    }, "Storage quota exceeded")
+                    .sniff(pending.getContentType())
+                    .digest(UploadPipeline.SHA_256)
+                    .open();
+            stored = s3Service.uploadFile(s3Service.keyOf(pending.getS3Key()), inspected);
+        } catch (UploadRejectedException e) {
+            discardPending(pending.getId(), held[0]);
+            throw new ResponseStatusException(e.getStatus(), e.getMessage());
+        } catch (IOException e) {
+            discardPending(pending.getId(), held[0]);
+            throw new RuntimeException("Failed to read upload: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            discardPending(pending.getId(), held[0]);
+            throw e;
+        }
+
+        FileItem done;
+        try {
+            done = transactionTemplate.execute(tx -> {
+                FileItem fi = fileItemRepository.findById(pending.getId()).orElse(null);
+                if (fi == null) {
+                    // Deleted mid-transfer; that gave back the file slot but not the bytes held here
+                    quotaService.release(owner, 0, held[0]);
+                    return null;
+                }
+                Blob blob = blobService.store(stored, inspected.contentType());
+                fi.setBlob(blob);
+                fi.setS3Key(s3Service.publicUrl(blob.getS3Key())); // Store the S3 URL
+                fi.setContentType(inspected.contentType());
+                fi.setSize(stored.getSize());
+                fi.setStatus(FileItem.Status.READY);
+                quotaService.commit(owner, 1, held[0], stored.getSize());
+                return fileItemRepository.save(fi);
+            });
+        } catch (RuntimeException e) {
+            // Rolled back, so no blob points at the object just written
+            deleteUnreferenced(stored.getKey());
+            discardPending(pending.getId(), held[0]);
+            throw e;
+        }
+        if (done == null) {
+            deleteUnreferenced(stored.getKey());
+            throw new IllegalStateException("Upload was cancelled");
+        }
+        imageDerivativeService.scheduleForFile(done);
+        return done;
+    }
+
+    // For an object written to S3 whose row never got to reference it
+    private void deleteUnreferenced(String key) {
+        try {
+            s3Service.deleteObject(key);
+        } catch (Exception e) {
+            System.err.println("Failed to delete S3 object " + key + ": " + e.getMessage());
+        }
+    }
+
+    // Rolls back step 1 of an upload whose transfer failed
+    private void discardPending(Long fileId, long reservedBytes) {
+        transactionTemplate.executeWithoutResult(tx -> fileItemRepository.findById(fileId).ifPresent(fi -> {
+            fileItemRepository.delete(fi);
+            quotaService.release(fi.getOwner(), 1, reservedBytes);
+        }));
+    }
+
+    /**
+     * "Instant upload": if the caller already stores content with this SHA-256 and size, the new
+     * file just references it and no bytes are transferred. Returns empty when the client has to
+     * upload. Other users' content is not matched: a hash alone does not prove the caller has it.
+     */
+    @Transactional
+    public Optional<FileItem> instantUpload(InstantUploadRequest request) {
         User user = currentUser();
+        if (request.getSize() > maxFileSizeBytes) {
+            throw new IllegalArgumentException("File too large: " + request.getFileName());
+        }
+        reserveUploadQuota(user, 1, request.getSize());
+
+        Optional<Blob> blob = blobService.acquireOwned(user.getId(), request.getSha256(), request.getSize());
+        if (blob.isEmpty()) {
+            quotaService.release(user, 1, request.getSize());
+            return Optional.empty();
+        }
+        String contentType = request.getContentType() != null ? request.getContentType() : blob.get().getContentType();
+        FileItem fi = fileItemRepository.save(FileItem.builder()
+                .owner(user)
+                .originalName(request.getFileName())
+                .blob(blob.get())
+                .s3Key(s3Service.publicUrl(blob.get().getS3Key()))
+                .contentType(contentType)
+                .size(blob.get().getSize())
+                .visibility(FileItem.Visibility.PRIVATE)
+                .status(FileItem.Status.READY)
+                .build());
+        quotaService.commit(user, 1, request.getSize(), blob.get().getSize());
+        imageDerivativeService.scheduleForFile(fi);
+        return Optional.of(fi);
+    }
 
+    @Value("${app.subscription.file-limit:100}")
+    private int subscriptionFileLimit;
+
+    @Value("${app.files.presign-put-ttl-seconds:900}")
+    private long presignPutTtlSeconds;
+
+    // Checks the caller may upload and reserves count files and bytes against their plan limits
+    private void reserveUploadQuota(User user, int count, long bytes) {
         // Require verified email to upload
-        if (!Boolean.TRUE.equals(user.getEmailVerified())) {
+        if (!currentUsers.emailVerified()) {
             throw new org.springframework.web.server.ResponseStatusException(org.springframework.http.HttpStatus.FORBIDDEN, "Email not verified. Please verify your email to upload files.");
         }
 
-        int remaining = quotaService.remaining(user);
-        if (remaining < 1) {
+        if (!quotaService.reserve(user, count, bytes)) {
             boolean subscribed = quotaService.isSubscribed(user);
-            int limit = quotaService.getOrCreate(user).getLimitFiles();
+            var q = quotaService.getOrCreate(user);
+            int limit = q.getLimitFiles();
+            if (quotaService.remaining(user) >= count) {
+                throw new IllegalStateException("Not enough storage left: " + bytes + " bytes needed, "
+                        + quotaService.remainingBytes(user) + " of " + q.getLimitBytes() + " bytes free.");
+            }
             if (subscribed) {
                 throw new IllegalStateException("You have reached your plan limit of " + limit + " files. Please delete some files or upgrade.");
             } else {
                 throw new IllegalStateException("Free plan limit reached. Please purchase the Pro plan to upload up to " + subscriptionFileLimit + " files.");
             }
         }
-        if (file.getSize() > maxFileSizeBytes) {
-            throw new IllegalArgumentException("File too large: " + file.getOriginalFilename());
+    }
+
+    /**
+     * Phase 1 of a direct-to-S3 upload: reserves quota, records UPLOADING rows and hands back
+     * presigned PUT URLs. The bytes never pass through this server.
+     */
+    @Transactional
+    public UploadInitResponse initUpload(UploadInitRequest request) {
+        User user = currentUser();
+        List<UploadInitRequest.FileSpec> specs = request.getFiles();
+        if (specs.size() > maxFilesPerUpload) {
+            throw new IllegalArgumentException("At most " + maxFilesPerUpload + " files can be uploaded at once");
         }
+        for (UploadInitRequest.FileSpec spec : specs) {
+            if (spec.getSize() > maxFileSizeBytes) {
+                throw new IllegalArgumentException("File too large: " + spec.getFileName());
+            }
+        }
+        reserveUploadQuota(user, specs.size(), specs.stream().mapToLong(UploadInitRequest.FileSpec::getSize).sum());
 
-        String s3Url = s3Service.uploadFile(user.getId(), file);
+        Duration ttl = Duration.ofSeconds(presignPutTtlSeconds);
+        List<UploadInitResponse.Item> items = new ArrayList<>();
+        for (UploadInitRequest.FileSpec spec : specs) {
+            String key = s3Service.generateKey(user.getId(), spec.getFileName());
+            String tempId = UUID.randomUUID().toString();
+            fileItemRepository.save(FileItem.builder()
+                    .owner(user)
+                    .originalName(spec.getFileName())
+                    .s3Key(s3Service.publicUrl(key))
+                    .contentType(spec.getContentType())
+                    .size(spec.getSize())
+                    .visibility(FileItem.Visibility.PRIVATE)
+                    .status(FileItem.Status.UPLOADING)
+                    .uploadToken(tempId)
+                    .build());
 
-        FileItem fi = FileItem.builder()
-                .owner(user)
-                .originalName(file.getOriginalFilename())
-                .s3Key(s3Url) // Store the S3 URL
-                .contentType(file.getContentType())
-                .size(file.getSize())
-                .visibility(FileItem.Visibility.PRIVATE)
-                .status(FileItem.Status.READY)
+            PresignedPutObjectRequest presigned = s3Service.presignPut(key, spec.getContentType(), spec.getSize(), ttl);
+            items.add(UploadInitResponse.Item.builder()
+                    .tempId(tempId)
+                    .s3Key(key)
+                    .uploadUrl(presigned.url().toString())
+                    .contentType(spec.getContentType())
+                    .maxSize(spec.getSize())
+                    .headers(s3Service.signedHeaders(presigned))
+                    .build());
+        }
+
+        var q = quotaService.getOrCreate(user);
+        return UploadInitResponse.builder()
+                .items(items)
+                .quota(UploadInitResponse.Quota.builder()
+                        .used(q.getUsedFiles() + q.getReservedFiles())
+                        .limit(q.getLimitFiles())
+                        .build())
                 .build();
-        fileItemRepository.save(fi);
+    }
 
-        quotaService.incrementUsed(user, 1);
+    /**
+     * Phase 2 of a direct-to-S3 upload: every item whose object landed in S3 becomes READY.
+     * Items whose object is missing are dropped and their quota reservation is released.
+     * S3 is checked first, outside any transaction; the rows are then locked and updated in one
+     * short transaction, so no connection or lock is held across the HEAD requests.
+     */
+    public UploadCompleteResponse completeUpload(UploadCompleteRequest request) {
+        User user = currentUser();
+        FileItem.Visibility visibility = request.getDefaultVisibility() != null
+                ? request.getDefaultVisibility()
+                : FileItem.Visibility.PRIVATE;
+        Set<String> tokens = new LinkedHashSet<>();
+        for (UploadCompleteRequest.Item item : request.getItems()) {
+            tokens.add(item.getTempId());
+        }
 
-        return fi;
+        // An S3 error other than "not found" propagates before anything has changed, so the
+        // client can retry instead of losing a file that did arrive
+        Map<String, Boolean> arrived = new HashMap<>();
+        for (FileItem fi : fileItemRepository.findPresigned(tokens, user.getId())) {
+            if (fi.getStatus() == FileItem.Status.UPLOADING) {
+                arrived.put(fi.getUploadToken(), s3Service.headObjectExists(s3Service.keyOf(fi.getS3Key())));
+            }
+        }
+
+        return transactionTemplate.execute(tx -> {
+            Map<String, FileItem> locked = new HashMap<>();
+            for (FileItem fi : fileItemRepository.findPresignedForUpdate(tokens, user.getId())) {
+                locked.put(fi.getUploadToken(), fi);
+            }
+            List<UploadCompleteResponse.FileSummary> files = new ArrayList<>();
+            int stored = 0;
+            int missing = 0;
+            long storedBytes = 0;
+            long missingBytes = 0;
+            for (String token : tokens) {
+                FileItem fi = locked.get(token);
+                if (fi == null) {
+                    throw new IllegalArgumentException("Unknown upload: " + token);
+                }
+                if (fi.getStatus() == FileItem.Status.UPLOADING) {
+                    Boolean present = arrived.get(token);
+                    if (present == null) {
+                        // Not there when S3 was checked; presigned rows never return to UPLOADING
+                        throw new IllegalStateException("Upload changed while completing: " + token);
+                    }
+                    if (!present) {
+                        fileItemRepository.delete(fi);
+                        missing++;
+                        missingBytes += sizeOf(fi);
+                        continue;
+                    }
+                    fi.setBlob(blobService.storeUnhashed(s3Service.keyOf(fi.getS3Key()), fi.getSize(), fi.getContentType()));
+                    fi.setStatus(FileItem.Status.READY);
+                    fi.setVisibility(visibility);
+                    fileItemRepository.save(fi);
+                    imageDerivativeService.scheduleForFile(fi);
+                    stored++;
+                    storedBytes += sizeOf(fi);
+                }
+                files.add(UploadCompleteResponse.FileSummary.builder()
+                        .id(fi.getId())
+                        .name(fi.getOriginalName())
+                        .contentType(fi.getContentType())
+                        .size(fi.getSize())
+                        .visibility(fi.getVisibility().name())
+                        .build());
+            }
+            // The presigned PUT was signed for the declared size, so that is what S3 holds
+            quotaService.commit(user, stored, storedBytes, storedBytes);
+            quotaService.release(user, missing, missingBytes);
+
+            var q = quotaService.getOrCreate(user);
+            return UploadCompleteResponse.builder()
+                    .files(files)
+                    .quota(UploadCompleteResponse.Quota.builder()
+                            .used((long) q.getUsedFiles() + q.getReservedFiles())
+                            .max((long) q.getLimitFiles())
+                            .build())
+                    .build();
+        });
     }
 
-    @Value("${app.subscription.file-limit:100}")
-    private int subscriptionFileLimit;
+    /**
+     * Opens a resumable upload session backed by an S3 multipart upload. The client then PUTs
+     * chunks of {@code chunkSize} bytes at increasing offsets and can ask for the committed offset
+     * after a disconnect, so only missing chunks are ever re-sent.
+     * The quota reservation and the row are separate short transactions, so no connection is held
+     * while S3 creates the multipart upload.
+     */
+    public ResumableUploadResponse createResumableUpload(ResumableUploadRequest request) {
+        User user = currentUser();
+        if (request.getSize() > maxFileSizeBytes) {
+            throw new IllegalArgumentException("File too large: " + request.getFileName());
+        }
+        reserveUploadQuota(user, 1, request.getSize());
+
+        String key = s3Service.generateKey(user.getId(), request.getFileName());
+        String uploadId;
+        try {
+            uploadId = s3Service.createMultipartUpload(key, request.getContentType());
+        } catch (RuntimeException e) {
+            quotaService.release(user, 1, request.getSize());
+            throw e;
+        }
+        try {
+            FileItem fi = fileItemRepository.save(FileItem.builder()
+                    .owner(user)
+                    .originalName(request.getFileName())
+                    .s3Key(s3Service.publicUrl(key))
+                    .contentType(request.getContentType())
+                    .size(request.getSize())
+                    .visibility(FileItem.Visibility.PRIVATE)
+                    .status(FileItem.Status.UPLOADING)
+                    .uploadToken(UUID.randomUUID().toString())
+                    .multipartUploadId(uploadId)
+                    .partSize(s3Service.getPartSizeBytes())
+                    .build());
+            return toResumable(fi);
+        } catch (RuntimeException e) {
+            s3Service.abortMultipart(key, uploadId);
+            quotaService.release(user, 1, request.getSize());
+            throw e;
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public ResumableUploadResponse getResumableUpload(String token) {
+        return toResumable(findResumable(token, currentUser()));
+    }
+
+    /**
+     * Stores the chunk starting at {@code offset}. A chunk the server already has is acknowledged
+     * without reading the body; a chunk past the committed offset is rejected with 409 so the
+     * client can resume from the offset in the error response.
+     * No transaction is held while the bytes travel to S3.
+     */
+    public ResumableUploadResponse uploadChunk(String token, long offset, InputStream in, long contentLength) throws IOException {
+        FileItem fi = findResumable(token, currentUser());
+        if (fi.getStatus() != FileItem.Status.UPLOADING) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is already complete");
+        }
+        long committed = fi.getCommittedBytes();
+        if (offset < committed) {
+            return toResumable(fi);
+        }
+        if (offset > committed) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Expected chunk at offset " + committed);
+        }
+        long chunkSize = partSizeOf(fi);
+        long expected = Math.min(chunkSize, fi.getSize() - offset);
+        if (expected <= 0) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "All bytes have already been received");
+        }
+        if (contentLength >= 0 && contentLength != expected) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Chunk at offset " + offset + " must be " + expected + " bytes");
+        }
+
+        int partNumber = (int) (offset / chunkSize) + 1;
+        String etag;
+        try {
+            etag = s3Service.uploadPart(s3Service.keyOf(fi.getS3Key()), fi.getMultipartUploadId(), partNumber, in, expected);
+        } catch (UploadRejectedException e) {
+            throw new ResponseStatusException(e.getStatus(), e.getMessage());
+        }
+
+        return transactionTemplate.execute(tx -> {
+            FileItem locked = fileItemRepository.findByIdForUpdate(fi.getId())
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload not found"));
+            // A concurrent retry of the same chunk may have committed it first
+            if (locked.getCommittedBytes() == offset) {
+                locked.getUploadParts().add(new UploadPart(partNumber, etag, expected));
+                locked.setCommittedBytes(offset + expected);
+            }
+            return toResumable(locked);
+        });
+    }
+
+    /**
+     * Has S3 assemble the parts and marks the file READY. The parts are read in one short
+     * transaction and the result is written in another; S3 runs in between, so no connection or
+     * row lock is held while it assembles a large file. Completing twice is harmless.
+     */
+    public FileItem completeResumableUpload(String token) {
+        User user = currentUser();
+        FileItem session = transactionTemplate.execute(tx -> {
+            FileItem fi = findResumable(token, user);
+            if (fi.getStatus() == FileItem.Status.UPLOADING && fi.getCommittedBytes() < fi.getSize()) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT,
+                        "Only " + fi.getCommittedBytes() + " of " + fi.getSize() + " bytes received");
+            }
+            fi.getUploadParts().size(); // loaded for use outside the transaction
+            return fi;
+        });
+        if (session.getStatus() == FileItem.Status.READY) {
+            return session;
+        }
+        Map<Integer, String> etags = new HashMap<>();
+        for (UploadPart part : session.getUploadParts()) {
+            etags.put(part.getPartNumber(), part.getEtag());
+        }
+        String key = s3Service.keyOf(session.getS3Key());
+        try {
+            s3Service.completeMultipartUpload(key, session.getMultipartUploadId(), etags);
+        } catch (SdkException e) {
+            // A concurrent completion of the same session may have finished it already
+            Optional<FileItem> done = fileItemRepository.findById(session.getId())
+                    .filter(f -> f.getStatus() == FileItem.Status.READY);
+            if (done.isPresent()) {
+                return done.get();
+            }
+            throw e;
+        }
+
+        FileItem done = transactionTemplate.execute(tx -> {
+            FileItem fi = fileItemRepository.findByIdForUpdate(session.getId()).orElse(null);
+            if (fi == null || fi.getStatus() == FileItem.Status.READY) {
+                return fi;
+            }
+            fi.setBlob(blobService.storeUnhashed(key, fi.getSize(), fi.getContentType()));
+            fi.setStatus(FileItem.Status.READY);
+            fi.setMultipartUploadId(null);
+            fi.getUploadParts().clear();
+            quotaService.commit(user, 1, fi.getSize(), fi.getSize());
+            imageDerivativeService.scheduleForFile(fi);
+            return fileItemRepository.save(fi);
+        });
+        if (done == null) {
+            // Aborted or expired while S3 was assembling it; nothing references the object
+            s3Service.deleteObjects(List.of(key));
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload not found");
+        }
+        return done;
+    }
+
+    @Transactional
+    public void abortResumableUpload(String token) {
+        User user = currentUser();
+        FileItem fi = findResumable(token, user);
+        if (fi.getStatus() != FileItem.Status.UPLOADING) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is already complete");
+        }
+        blobService.release(fi);
+        fileItemRepository.delete(fi);
+        quotaService.release(user, 1, sizeOf(fi));
+    }
+
+    // Trashed files are only reachable through the trash endpoints
+    private FileItem findLive(Long id, User user) {
+        return fileItemRepository.findByIdAndOwnerId(id, user.getId())
+                .filter(f -> f.getStatus() != FileItem.Status.DELETED)
+                .orElseThrow(() -> new IllegalArgumentException("File not found"));
+    }
+
+    private static long sizeOf(FileItem fi) {
+        return fi.getSize() != null ? fi.getSize() : 0;
+    }
+
+    private FileItem findResumable(String token, User user) {
+        return fileItemRepository.findByUploadTokenAndOwnerId(token, user.getId())
+                .filter(f -> f.getMultipartUploadId() != null || f.getStatus() == FileItem.Status.READY)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload not found"));
+    }
+
+    // Sessions opened before the part size was stored on the row use the configured one
+    private long partSizeOf(FileItem fi) {
+        return fi.getPartSize() != null ? fi.getPartSize() : s3Service.getPartSizeBytes();
+    }
+
+    private ResumableUploadResponse toResumable(FileItem fi) {
+        return ResumableUploadResponse.builder()
+                .uploadToken(fi.getUploadToken())
+                .fileId(fi.getId())
+                .name(fi.getOriginalName())
+                .size(fi.getSize())
+                .chunkSize(partSizeOf(fi))
+                .committedBytes(fi.getCommittedBytes())
+                .status(fi.getStatus().name())
+                .build();
+    }
 
     @Transactional(readOnly = true)
     public FileItem getFileForView(Long id) {
         FileItem file = fileItemRepository.findById(id)
+                .filter(f -> f.getStatus() == FileItem.Status.READY)
                 .orElseThrow(() -> new IllegalArgumentException("File not found"));
         if (file.getVisibility() == FileItem.Visibility.PUBLIC) {
             return file;
@@ -177,6 +926,110 @@ public class FileService {
         throw new IllegalStateException("You do not have permission to view this file.");
     }
 
+    /**
+     * Opens a file's bytes for the /content proxy. Only a single "bytes=" range is passed on to S3;
+     * anything else is served whole, which HTTP allows. If-Range is honoured by asking for the range
+     * only while the validator still matches and falling back to the full object when it does not.
+     * An entity tag is checked by S3; a date has to equal the object's Last-Modified exactly, which
+     * S3 cannot test, so it is compared against the ranged response before any byte is used.
+     */
+    public ResponseInputStream<GetObjectResponse> openContent(FileItem file, String range, String ifRange) {
+        String key = s3Service.keyOf(file.getS3Key());
+        String single = range != null && SINGLE_RANGE.matcher(range.trim()).matches() ? range.trim() : null;
+        if (single == null) {
+            return s3Service.getObject(key, null, null);
+        }
+        String ifMatch = null;
+        Instant lastModified = null;
+        if (ifRange != null && !ifRange.isBlank()) {
+            String validator = ifRange.trim();
+            if (validator.startsWith("\"")) {
+                ifMatch = validator;
+            } else if (validator.startsWith("W/")) {
+                // Weak validators never satisfy If-Range
+                return s3Service.getObject(key, null, null);
+            } else {
+                try {
+                    lastModified = ZonedDateTime.parse(validator, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                } catch (DateTimeParseException e) {
+                    return s3Service.getObject(key, null, null);
+                }
+            }
+        }
+        ResponseInputStream<GetObjectResponse> in;
+        try {
+            in = s3Service.getObject(key, single, ifMatch);
+        } catch (S3Exception e) {
+            if (e.statusCode() == HttpStatus.PRECONDITION_FAILED.value()) {
+                // The client's copy is stale: send the whole current object instead
+                return s3Service.getObject(key, null, null);
+            }
+            if (e.statusCode() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+                throw new ResponseStatusException(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, "Range not satisfiable");
+            }
+            throw e;
+        }
+        if (lastModified != null) {
+            // HTTP dates have whole seconds; anything but the same second means a different object
+            Instant actual = in.response().lastModified();
+            if (actual == null || !actual.truncatedTo(ChronoUnit.SECONDS).equals(lastModified)) {
+                in.abort();
+                return s3Service.getObject(key, null, null);
+            }
+        }
+        return in;
+    }
+
+    /**
+     * Resolves the files for a ZIP download. Explicit ids must all exist and be readable by the
+     * caller (public, owned, or shared with them); otherwise the whole request is refused.
+     */
+    @Transactional(readOnly = true)
+    public List<FileItem> listForArchive(ArchiveRequest request) {
+        User user = currentUser();
+        List<FileItem> files;
+        if (request.getIds() != null && !request.getIds().isEmpty()) {
+            Map<Long, FileItem> byId = new HashMap<>();
+            fileItemRepository.findAllById(request.getIds()).forEach(f -> byId.put(f.getId(), f));
+            Set<Long> sharedWithMe = byId.isEmpty() ? Set.of() : fileShareRepository.findFileIdsSharedWith(user.getId(), byId.keySet());
+            files = new ArrayList<>();
+            for (Long id : new LinkedHashSet<>(request.getIds())) {
+                FileItem fi = byId.get(id);
+                if (fi == null || fi.getStatus() != FileItem.Status.READY) {
+                    throw new IllegalArgumentException("File not found with id: " + id);
+                }
+                // getOwner().getId() reads the foreign key; the owner proxy is not loaded
+                boolean readable = fi.getVisibility() == FileItem.Visibility.PUBLIC
+                        || fi.getOwner().getId().equals(user.getId())
+                        || sharedWithMe.contains(fi.getId());
+                if (!readable) {
+                    throw new IllegalStateException("You do not have permission to download file " + id);
+                }
+                files.add(fi);
+            }
+        } else {
+            ArchiveRequest.Scope scope = request.getScope() != null ? request.getScope() : ArchiveRequest.Scope.ALL;
+            // One row over the cap is enough to tell the archive is too big
+            KeysetCursor first = KeysetCursor.FIRST;
+            Pageable upToCap = PageRequest.of(0, maxArchiveFiles + 1);
+            files = switch (scope) {
+                case ALL -> request.getVisibility() == null
+                        ? fileItemRepository.findPageByOwner(user.getId(), FileItem.Status.READY, first.at(), first.id(), upToCap)
+                        : fileItemRepository.findPageByOwnerAndVisibility(user.getId(), request.getVisibility(), FileItem.Status.READY, first.at(), first.id(), upToCap);
+                case FAVORITES -> fileItemRepository.findFavoritePageByOwner(user.getId(), FileItem.Status.READY, first.at(), first.id(), upToCap);
+                case SHARED_WITH_ME -> fileShareRepository.findPageBySharedTo(user.getId(), first.at(), first.id(), upToCap).stream()
+                        .map(FileShare::getFile)
+                        .filter(f -> f.getStatus() == FileItem.Status.READY)
+                        .distinct()
+                        .toList();
+            };
+        }
+        if (files.size() > maxArchiveFiles) {
+            throw new IllegalArgumentException("An archive can hold at most " + maxArchiveFiles + " files");
+        }
+        return files;
+    }
+
     // Utility to check if current user is owner of the file
     public boolean isCurrentUserOwner(FileItem file) {
         User user = currentUser();
@@ -186,34 +1039,121 @@ public class FileService {
     @Transactional
     public FileShare shareFile(Long fileId, String recipientEmail) {
         User owner = currentUser();
+        // Only finished files: an upload in progress has no object behind it yet
         FileItem file = fileItemRepository.findByIdAndOwnerId(fileId, owner.getId())
+                .filter(f -> f.getStatus() == FileItem.Status.READY)
                 .orElseThrow(() -> new IllegalArgumentException("File not found or not owned by you"));
         User recipient = userRepository.findByEmail(recipientEmail)
                 .orElseThrow(() -> new IllegalArgumentException("Recipient is not a registered user"));
         if (recipient.getId().equals(owner.getId())) {
             throw new IllegalArgumentException("You cannot share a file with yourself");
         }
-        if (fileShareRepository.existsByFile_IdAndSharedTo_Id(file.getId(), recipient.getId())) {
-            return fileShareRepository.findByFile_IdAndSharedTo_Id(file.getId(), recipient.getId()).get();
+        return fileShareRepository.findByFile_IdAndSharedTo_Id(file.getId(), recipient.getId())
+                .orElseGet(() -> fileShareRepository.save(FileShare.builder()
+                        .file(file)
+                        .owner(owner)
+                        .sharedTo(recipient)
+                        .build()));
+    }
+
+    /**
+     * Shares several of the caller's files with several users. Recipients, files and the pairs
+     * already shared are each looked up with one query, and the missing shares are written as JDBC
+     * batches, so the number of round trips does not grow with the number of pairs. Unknown emails
+     * and files the caller cannot share are reported rather than failing the request.
+     */
+    @Transactional
+    public BatchShareResponse shareBatch(List<Long> fileIds, List<String> emails) {
+        Set<Long> wantedFiles = new LinkedHashSet<>(fileIds);
+        wantedFiles.remove(null);
+        // Normalised as at registration, so addresses differing only in case are one recipient;
+        // unknown ones are reported as first given
+        Map<String, String> wantedEmails = new LinkedHashMap<>();
+        for (String email : emails) {
+            if (email != null && !email.isBlank()) {
+                wantedEmails.putIfAbsent(EmailUtils.normalize(email), email.trim());
+            }
+        }
+        if (wantedFiles.isEmpty() || wantedEmails.isEmpty()) {
+            throw new IllegalArgumentException("No files or recipients given");
+        }
+        if ((long) wantedFiles.size() * wantedEmails.size() > maxShareBatch) {
+            throw new IllegalArgumentException("At most " + maxShareBatch + " file/recipient pairs can be shared at once");
+        }
+        User owner = currentUser();
+
+        List<Long> files = fileItemRepository.findReadyIdsByOwner(owner.getId(), wantedFiles);
+        List<Long> notFound = new ArrayList<>(wantedFiles);
+        notFound.removeAll(new HashSet<>(files));
+
+        List<Long> recipients = new ArrayList<>();
+        Map<String, String> unknown = new LinkedHashMap<>(wantedEmails);
+        for (User u : userRepository.findAllByEmailIn(wantedEmails.keySet())) {
+            unknown.remove(EmailUtils.normalize(u.getEmail()));
+            if (!u.getId().equals(owner.getId())) { // sharing with yourself is skipped
+                recipients.add(u.getId());
+            }
         }
-        FileShare share = FileShare.builder()
-                .file(file)
-                .owner(owner)
-                .sharedTo(recipient)
+        List<String> unknownEmails = new ArrayList<>(unknown.values());
+
+        int alreadyShared = 0;
+        List<Object[]> rows = new ArrayList<>();
+        if (!files.isEmpty() && !recipients.isEmpty()) {
+            Set<ShareKey> existing = new HashSet<>(fileShareRepository.findExisting(files, recipients));
+            alreadyShared = existing.size();
+            Timestamp now = Timestamp.from(Instant.now());
+            for (Long fileId : files) {
+                for (Long to : recipients) {
+                    if (!existing.contains(new ShareKey(fileId, to))) {
+                        rows.add(new Object[]{fileId, owner.getId(), to, now});
+                    }
+                }
+            }
+        }
+        if (!rows.isEmpty()) {
+            // A pair shared concurrently fails on uk_file_recipient and rolls the whole batch back
+            jdbcTemplate.batchUpdate(INSERT_SHARE_SQL, rows, Math.max(1, shareInsertBatch), (ps, row) -> {
+                ps.setLong(1, (Long) row[0]);
+                ps.setLong(2, (Long) row[1]);
+                ps.setLong(3, (Long) row[2]);
+                ps.setTimestamp(4, (Timestamp) row[3], Calendar.getInstance(TimeZone.getTimeZone("UTC")));
+            });
+        }
+        return BatchShareResponse.builder()
+                .shared(rows.size())
+                .alreadyShared(alreadyShared)
+                .notFound(notFound)
+                .unknownEmails(unknownEmails)
                 .build();
-        return fileShareRepository.save(share);
     }
 
     @Transactional(readOnly = true)
-    public List<FileShare> listSharedWithMe() {
+    public CursorPage<FileShare> listSharedWithMe(String cursor, int limit) {
         User me = currentUser();
-        return fileShareRepository.findAllBySharedTo_IdOrderBySharedOnDesc(me.getId());
+        return page(cursor, limit, (after, page) -> fileShareRepository.findPageBySharedTo(
+                me.getId(), after.at(), after.id(), page), s -> new KeysetCursor(s.getSharedOn(), s.getId()));
     }
 
     @Transactional(readOnly = true)
-    public List<FileShare> listSharedByMe() {
+    public CursorPage<FileShare> listSharedByMe(String cursor, int limit) {
         User me = currentUser();
-        return fileShareRepository.findAllByOwner_IdOrderBySharedOnDesc(me.getId());
+        return page(cursor, limit, (after, page) -> fileShareRepository.findPageByOwner(
+                me.getId(), after.at(), after.id(), page), s -> new KeysetCursor(s.getSharedOn(), s.getId()));
+    }
+
+    private CursorPage<FileSummaryRow> filePage(String cursor, int limit, BiFunction<KeysetCursor, Pageable, List<FileSummaryRow>> query) {
+        return page(cursor, limit, query, f -> new KeysetCursor(f.createdAt(), f.id()));
+    }
+
+    // Fetches one row past the page to learn whether there is a next one, without a count query
+    private <T> CursorPage<T> page(String cursor, int limit, BiFunction<KeysetCursor, Pageable, List<T>> query,
+                                   Function<T, KeysetCursor> keyOf) {
+        int size = Math.max(1, Math.min(limit, maxPageSize));
+        List<T> rows = query.apply(KeysetCursor.decode(cursor), PageRequest.of(0, size + 1));
+        boolean hasMore = rows.size() > size;
+        List<T> items = hasMore ? rows.subList(0, size) : rows;
+        String next = hasMore ? keyOf.apply(items.get(size - 1)).encode() : null;
+        return new CursorPage<>(items, next, hasMore);
     }
 
     @Transactional(readOnly = true)
@@ -227,18 +1167,34 @@ public class FileService {
     }
 
     private int getUsedCount(User user) {
-        return quotaService.getOrCreate(user).getUsedFiles();
+        var q = quotaService.getOrCreate(user);
+        return q.getUsedFiles() + q.getReservedFiles();
     }
 
     public QuotaResponse getQuota() {
         User user = currentUser();
         var q = quotaService.getOrCreate(user);
-        int remaining = Math.max(0, q.getLimitFiles() - q.getUsedFiles());
+        int used = q.getUsedFiles() + q.getReservedFiles();
+        long usedBytes = q.getUsedBytes() + q.getReservedBytes();
         return QuotaResponse.builder()
-                .used(q.getUsedFiles())
+                .used(used)
+                .reserved(q.getReservedFiles())
                 .limit(q.getLimitFiles())
-                .remaining(remaining)
+                .remaining(Math.max(0, q.getLimitFiles() - used))
+                .usedBytes(usedBytes)
+                .reservedBytes(q.getReservedBytes())
+                .limitBytes(q.getLimitBytes())
+                .remainingBytes(Math.max(0, q.getLimitBytes() - usedBytes))
                 .plan(q.getSubscriptionStatus())
                 .build();
     }
+
+    // Outcome of one file in a batch upload: either the stored file or the reason it failed
+    @Getter
+    @AllArgsConstructor
+    public static class BatchResult {
+        private final String name;
+        private final FileItem file;
+        private final String error;
+    }
 }
@@ -0,0 +1,285 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.repository.FileItemRepository;
+import com.cloudshareoriginal.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds small JPEG renditions of uploaded images in the background so lists and avatars do not
+ * pull the full original. Derivatives live next to their source under
+ * {@code derived/<sourceKey>/<variant>.jpg}, so files sharing a blob share them too.
+ */
+@Service
+@RequiredArgsConstructor
+public class ImageDerivativeService {
+
+    public static final String AVATAR = "avatar";
+    public static final String THUMBNAIL = "thumb";
+    public static final String PREVIEW = "preview";
+
+    private static final int AVATAR_SIZE = 96;     // square, 2x a 48px avatar
+    private static final int THUMBNAIL_SIZE = 320; // longest side
+    private static final int PREVIEW_SIZE = 1280;  // longest side
+    private static final float JPEG_QUALITY = 0.82f;
+
+    // What the JDK can decode; anything else keeps being served as the original
+    private static final Set<String> DECODABLE = Set.of("image/jpeg", "image/jpg", "image/png", "image/gif", "image/bmp");
+
+    private final S3Service s3Service;
+    private final FileItemRepository fileItemRepository;
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${app.images.derivative-threads:2}")
+    private int derivativeThreads;
+
+    @Value("${app.images.queue-size:256}")
+    private int queueSize;
+
+    @Value("${app.images.max-source-bytes:52428800}")
+    private long maxSourceBytes;
+
+    // Rejects decompression bombs before any pixels are allocated
+    @Value("${app.images.max-source-pixels:100000000}")
+    private long maxSourcePixels;
+
+    private ExecutorService derivativeExecutor;
+
+    @PostConstruct
+    void init() {
+        int threads = Math.max(1, derivativeThreads);
+        AtomicInteger seq = new AtomicInteger();
+        // Derivatives are an optimisation: under a backlog they are skipped, never waited for
+        derivativeExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), r -> {
+                    Thread t = new Thread(r, "image-derivative-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, (r, executor) -> System.err.println("Image derivative queue full, skipping a job"));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        derivativeExecutor.shutdown();
+    }
+
+    public static String derivedKey(String sourceKey, String variant) {
+        return "derived/" + sourceKey + "/" + variant + ".jpg";
+    }
+
+    /** Queues thumbnail and preview generation for an image file once the current transaction commits. */
+    public void scheduleForFile(FileItem fi) {
+        if (!isDecodable(fi.getContentType()) || (fi.getSize() != null && fi.getSize() > maxSourceBytes)) {
+            return;
+        }
+        Long fileId = fi.getId();
+        String sourceKey = s3Service.keyOf(fi.getS3Key());
+        afterCommit(() -> generateForFile(fileId, sourceKey));
+    }
+
+    /** Queues avatar generation for a freshly uploaded profile photo. */
+    public void scheduleForUser(Long userId, String photoUrl, String contentType) {
+        if (!isDecodable(contentType)) {
+            return;
+        }
+        afterCommit(() -> generateForUser(userId, photoUrl));
+    }
+
+    // Variants are deleted blindly; S3 treats deleting a missing key as success
+    public void deleteDerivatives(String sourceKey) {
+        for (String variant : List.of(AVATAR, THUMBNAIL, PREVIEW)) {
+            try {
+                s3Service.deleteObject(derivedKey(sourceKey, variant));
+            } catch (Exception e) {
+                System.err.println("Failed to delete derivative " + variant + " of " + sourceKey + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void generateForFile(Long fileId, String sourceKey) {
+        String thumbKey = derivedKey(sourceKey, THUMBNAIL);
+        String previewKey = derivedKey(sourceKey, PREVIEW);
+        try {
+            // Another file on the same blob may already have produced them
+            if (!s3Service.headObjectExists(thumbKey) || !s3Service.headObjectExists(previewKey)) {
+                BufferedImage source = decode(sourceKey, PREVIEW_SIZE);
+                if (source == null) {
+                    return;
+                }
+                BufferedImage preview = scaleToFit(source, PREVIEW_SIZE);
+                s3Service.putBytes(previewKey, "image/jpeg", jpeg(preview));
+                s3Service.putBytes(thumbKey, "image/jpeg", jpeg(scaleToFit(preview, THUMBNAIL_SIZE)));
+            }
+            boolean recorded = Boolean.TRUE.equals(transactionTemplate.execute(tx -> fileItemRepository.findById(fileId)
+                    .filter(fi -> sourceKey.equals(s3Service.keyOf(fi.getS3Key())))
+                    .map(fi -> {
+                        fi.setThumbnailUrl(s3Service.publicUrl(thumbKey));
+                        fi.setPreviewUrl(s3Service.publicUrl(previewKey));
+                        return true;
+                    })
+                    .orElse(false)));
+            // File deleted while we worked: drop the derivatives unless the content is still in use
+            if (!recorded && !s3Service.headObjectExists(sourceKey)) {
+                deleteDerivatives(sourceKey);
+            }
+        } catch (Exception e) {
+            System.err.println("Image derivatives failed for file " + fileId + ": " + e.getMessage());
+        }
+    }
+
+    private void generateForUser(Long userId, String photoUrl) {
+        String sourceKey = s3Service.keyOf(photoUrl);
+        String avatarKey = derivedKey(sourceKey, AVATAR);
+        try {
+            BufferedImage source = decode(sourceKey, AVATAR_SIZE);
+            if (source == null) {
+                return;
+            }
+            s3Service.putBytes(avatarKey, "image/jpeg", jpeg(cropSquare(source, AVATAR_SIZE)));
+            boolean recorded = Boolean.TRUE.equals(transactionTemplate.execute(tx -> userRepository.findById(userId)
+                    .filter(u -> photoUrl.equals(u.getProfileImageUrl()))
+                    .map(u -> {
+                        u.setProfileAvatarUrl(s3Service.publicUrl(avatarKey));
+                        return true;
+                    })
+                    .orElse(false)));
+            // The photo was replaced before we finished; its avatar would never be shown
+            if (!recorded) {
+                s3Service.deleteObject(avatarKey);
+            }
+        } catch (Exception e) {
+            System.err.println("Avatar generation failed for user " + userId + ": " + e.getMessage());
+        }
+    }
+
+    private void afterCommit(Runnable job) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    derivativeExecutor.execute(job);
+                }
+            });
+        } else {
+            derivativeExecutor.execute(job);
+        }
+    }
+
+    private static boolean isDecodable(String contentType) {
+        return contentType != null && DECODABLE.contains(contentType.split(";")[0].trim().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Decodes straight from the S3 stream, subsampling large sources so the decoded raster is
+     * at most about twice the largest rendition rather than the full camera resolution.
+     */
+    private BufferedImage decode(String key, int targetSize) throws IOException {
+        try (InputStream raw = s3Service.openObject(key);
+             ImageInputStream in = new MemoryCacheImageInputStream(raw)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxSourcePixels) {
+                    System.err.println("Skipping derivatives for " + key + ": " + width + "x" + height + " is too large");
+                    return null;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.min(width, height) / (2 * targetSize));
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage cropSquare(BufferedImage source, int size) {
+        int side = Math.min(source.getWidth(), source.getHeight());
+        BufferedImage square = source.getSubimage((source.getWidth() - side) / 2, (source.getHeight() - side) / 2, side, side);
+        return scaleToFit(square, size);
+    }
+
+    // Halves repeatedly before the final bilinear step; one big bilinear jump aliases badly
+    private static BufferedImage scaleToFit(BufferedImage source, int maxSide) {
+        double scale = Math.min(1.0, (double) maxSide / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        BufferedImage image = source;
+        while (image.getWidth() / 2 >= width && image.getHeight() / 2 >= height) {
+            image = draw(image, image.getWidth() / 2, image.getHeight() / 2);
+        }
+        return draw(image, width, height);
+    }
+
+    // Also flattens transparency onto white, since JPEG has no alpha channel
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    private static byte[] jpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,66 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.utils.ExpiringCache;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Hands out short-lived presigned GET URLs for our private objects. Signing is pure CPU work, so
+ * URLs are cached per (key, disposition) for less than their validity: a URL returned from the
+ * cache always has at least a third of its lifetime left, and list endpoints that show the same
+ * files over and over mostly skip signing.
+ */
+@Service
+@RequiredArgsConstructor
+public class PresignedUrlService {
+
+    private final S3Service s3Service;
+
+    @Value("${app.s3.presign-get-ttl-seconds:900}")
+    private long presignGetTtlSeconds;
+
+    @Value("${app.s3.presign-get-cache-seconds:600}")
+    private long presignGetCacheSeconds;
+
+    @Value("${app.s3.presign-get-cache-size:10000}")
+    private int presignGetCacheSize;
+
+    private Duration urlTtl;
+    private ExpiringCache<String, String> cache;
+
+    @PostConstruct
+    void init() {
+        urlTtl = Duration.ofSeconds(presignGetTtlSeconds);
+        long cacheSeconds = Math.min(presignGetCacheSeconds, presignGetTtlSeconds * 2 / 3);
+        cache = new ExpiringCache<>(presignGetCacheSize, cacheSeconds * 1000);
+    }
+
+    /** URL for showing the object in the browser; accepts a stored object URL or a bare key, null-safe. */
+    public String inline(String urlOrKey) {
+        return sign(urlOrKey, null);
+    }
+
+    /** URL that makes the browser save the object as {@code fileName}. */
+    public String attachment(String urlOrKey, String fileName) {
+        String disposition = ContentDisposition.attachment()
+                .filename(fileName != null ? fileName : "download", StandardCharsets.UTF_8)
+                .build()
+                .toString();
+        return sign(urlOrKey, disposition);
+    }
+
+    private String sign(String urlOrKey, String disposition) {
+        if (urlOrKey == null || urlOrKey.isBlank()) {
+            return null;
+        }
+        String key = s3Service.keyOf(urlOrKey);
+        String cacheKey = disposition == null ? key : key + '\n' + disposition;
+        return cache.get(cacheKey, k -> s3Service.presignGet(key, disposition, urlTtl));
+    }
+}
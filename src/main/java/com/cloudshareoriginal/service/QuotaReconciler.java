@@ -0,0 +1,192 @@
+package com.cloudshareoriginal.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Brings {@code user_quota} back in line with {@code file_items}. The counters are maintained
+ * incrementally and can drift: rows fixed by hand, uploads cut short by a crash, or reservations
+ * never released. The expected values are one grouped aggregate over {@code file_items}, run for a
+ * range of owner ids at a time, each range in its own short transaction, so the job never scans or
+ * locks the whole table at once.
+ *
+ * <p>Files and quota counters always change together in one transaction, so both are read in the
+ * same transaction and a correction is only written if the quota row still holds the values it was
+ * compared against. A row that moved in the meantime is left for the next run.
+ */
+@Service
+@RequiredArgsConstructor
+public class QuotaReconciler {
+
+    private static final String QUOTAS_SQL = """
+            select user_id, used_files, used_bytes, reserved_files, reserved_bytes
+            from user_quota where user_id >= ? and user_id < ?""";
+
+    // READY files are usage, UPLOADING ones hold a reservation; trashed files count for nothing
+    private static final String AGGREGATE_SQL = """
+            select owner_id,
+                   sum(case when status = 'READY' then 1 else 0 end),
+                   sum(case when status = 'READY' then coalesce(size, 0) else 0 end),
+                   sum(case when status = 'UPLOADING' then 1 else 0 end)
+            from file_items where owner_id >= ? and owner_id < ?
+            group by owner_id""";
+
+    private static final String FIX_SQL = """
+            update user_quota set used_files = ?, used_bytes = ?, reserved_files = ?, reserved_bytes = ?
+            where user_id = ? and coalesce(used_files, 0) = ? and coalesce(used_bytes, 0) = ?
+              and coalesce(reserved_files, 0) = ? and coalesce(reserved_bytes, 0) = ?""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.quota.reconcile-range:1000}")
+    private int rangeSize;
+
+    private TransactionTemplate rangeTransaction;
+    private Counter correctedCounter;
+    private Counter skippedCounter;
+    private Timer runTimer;
+
+    // Results of the last completed run
+    private final AtomicLong lastDriftedRows = new AtomicLong();
+    private final AtomicLong lastFileDrift = new AtomicLong();
+    private final AtomicLong lastByteDrift = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        rangeTransaction = new TransactionTemplate(transactionManager);
+        correctedCounter = Counter.builder("cloudshare.quota.reconcile.corrected")
+                .description("Quota rows corrected by the reconciler")
+                .register(meterRegistry);
+        skippedCounter = Counter.builder("cloudshare.quota.reconcile.skipped")
+                .description("Drifted quota rows that changed during reconciliation and were left for the next run")
+                .register(meterRegistry);
+        runTimer = Timer.builder("cloudshare.quota.reconcile.duration")
+                .description("Time taken by one reconciliation run")
+                .register(meterRegistry);
+        Gauge.builder("cloudshare.quota.drift.rows", lastDriftedRows, AtomicLong::get)
+                .description("Quota rows found out of line in the last reconciliation run")
+                .register(meterRegistry);
+        Gauge.builder("cloudshare.quota.drift.files", lastFileDrift, AtomicLong::get)
+                .description("Total absolute file-count drift found in the last reconciliation run")
+                .register(meterRegistry);
+        Gauge.builder("cloudshare.quota.drift.bytes", lastByteDrift, AtomicLong::get)
+                .description("Total absolute byte drift found in the last reconciliation run")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${app.quota.reconcile-initial-delay-ms:300000}",
+            fixedDelayString = "${app.quota.reconcile-interval-ms:3600000}")
+    public void scheduledRun() {
+        try {
+            reconcile();
+        } catch (RuntimeException e) {
+            System.err.println("Quota reconciliation failed: " + e.getMessage());
+        }
+    }
+
+    /** Checks every quota row once and returns what was found. */
+    public Result reconcile() {
+        return runTimer.record(() -> {
+            Long[] bounds = jdbcTemplate.queryForObject("select min(user_id), max(user_id) from user_quota",
+                    (rs, n) -> new Long[]{rs.getObject(1, Long.class), rs.getObject(2, Long.class)});
+            Result total = new Result(0, 0, 0, 0);
+            if (bounds == null || bounds[0] == null) {
+                publish(total);
+                return total;
+            }
+            long step = Math.max(1, rangeSize);
+            for (long lo = bounds[0]; lo <= bounds[1]; lo += step) {
+                long from = lo;
+                total = total.plus(rangeTransaction.execute(tx -> reconcileRange(from, from + step)));
+            }
+            publish(total);
+            return total;
+        });
+    }
+
+    private Result reconcileRange(long from, long to) {
+        // Quota first: anything committed after this read changes the row, and the guarded update
+        // below then skips it instead of applying a stale correction
+        Map<Long, long[]> seen = new HashMap<>();
+        jdbcTemplate.query(QUOTAS_SQL, rs -> {
+            seen.put(rs.getLong(1), new long[]{rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)});
+        }, from, to);
+        if (seen.isEmpty()) {
+            return new Result(0, 0, 0, 0);
+        }
+
+        Map<Long, long[]> actual = new HashMap<>();
+        jdbcTemplate.query(AGGREGATE_SQL, rs -> {
+            actual.put(rs.getLong(1), new long[]{rs.getLong(2), rs.getLong(3), rs.getLong(4)});
+        }, from, to);
+
+        List<Object[]> fixes = new ArrayList<>();
+        long fileDrift = 0;
+        long byteDrift = 0;
+        for (Map.Entry<Long, long[]> e : seen.entrySet()) {
+            long[] q = e.getValue();
+            long[] a = actual.getOrDefault(e.getKey(), new long[3]);
+            // Bytes granted to a stream live only in memory, so reserved bytes can only be checked
+            // when nothing is uploading: then there must be none
+            long reservedBytes = a[2] == 0 ? 0 : q[3];
+            if (q[0] == a[0] && q[1] == a[1] && q[2] == a[2] && q[3] == reservedBytes) {
+                continue;
+            }
+            fileDrift += Math.abs(q[0] - a[0]) + Math.abs(q[2] - a[2]);
+            byteDrift += Math.abs(q[1] - a[1]) + Math.abs(q[3] - reservedBytes);
+            fixes.add(new Object[]{a[0], a[1], a[2], reservedBytes, e.getKey(), q[0], q[1], q[2], q[3]});
+        }
+        if (fixes.isEmpty()) {
+            return new Result(0, 0, 0, 0);
+        }
+
+        int corrected = 0;
+        for (int n : jdbcTemplate.batchUpdate(FIX_SQL, fixes)) {
+            // Some drivers only report that a batched statement ran, not how many rows it changed
+            corrected += n == Statement.SUCCESS_NO_INFO ? 1 : n;
+        }
+        correctedCounter.increment(corrected);
+        skippedCounter.increment(fixes.size() - corrected);
+        return new Result(fixes.size(), corrected, fileDrift, byteDrift);
+    }
+
+    private void publish(Result result) {
+        lastDriftedRows.set(result.drifted());
+        lastFileDrift.set(result.fileDrift());
+        lastByteDrift.set(result.byteDrift());
+        if (result.drifted() > 0) {
+            System.err.println("Quota reconciliation: " + result.drifted() + " rows drifted ("
+                    + result.fileDrift() + " files, " + result.byteDrift() + " bytes), "
+                    + result.corrected() + " corrected");
+        }
+    }
+
+    /** Rows found out of line, rows corrected, and the total absolute file and byte drift. */
+    public record Result(long drifted, long corrected, long fileDrift, long byteDrift) {
+
+        Result plus(Result other) {
+            return new Result(drifted + other.drifted, corrected + other.corrected,
+                    fileDrift + other.fileDrift, byteDrift + other.byteDrift);
+        }
+    }
+}
@@ -7,9 +7,13 @@ import com.cloudshareoriginal.repository.UserQuotaRepository;
 import com.cloudshareoriginal.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Optional;
+
 @Service
 @RequiredArgsConstructor
 public class QuotaService {
@@ -24,36 +28,112 @@ public class QuotaService {
     @Value("${app.free.file-limit:5}")
     private int freeFileLimit;
 
+    @Value("${app.subscription.byte-limit:107374182400}")
+    private long subscriptionByteLimit;
+
+    @Value("${app.free.byte-limit:1073741824}")
+    private long freeByteLimit;
+
+    // How much a streaming upload reserves at a time
+    @Value("${app.files.quota-grant-bytes:8388608}")
+    private long grantStepBytes;
+
     @Transactional
     public UserQuota getOrCreate(User user) {
-        return userQuotaRepository.findByUserId(user.getId())
-                .orElseGet(() -> userQuotaRepository.save(UserQuota.builder()
-                        .user(user)
-                        .limitFiles(freeFileLimit) // default to free tier limit for new/inactive users
-                        .usedFiles(0)
-                        .subscriptionStatus("inactive")
-                        .build()));
+        Optional<UserQuota> existing = userQuotaRepository.findByUserId(user.getId());
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+        // Upsert, so two first requests from a new user cannot both insert; new or inactive
+        // users start on the free tier limits
+        userQuotaRepository.insertIfAbsent(user.getId(), freeFileLimit, freeByteLimit);
+        return userQuotaRepository.findByUserId(user.getId()).orElseThrow();
+    }
+
+    /**
+     * Fills in counters and byte limits left NULL on rows created before those columns existed,
+     * which would otherwise fail every reserve. Runs once at startup; it only touches rows that
+     * still need it. Limits go in last, as the free one depends on the bytes already stored.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void backfillLegacyRows() {
+        int fixed = userQuotaRepository.backfillReservedFiles()
+                + userQuotaRepository.backfillReservedBytes()
+                + userQuotaRepository.backfillUsedBytes()
+                + userQuotaRepository.backfillLimitBytes(subscriptionByteLimit, freeByteLimit);
+        if (fixed > 0) {
+            System.err.println("Quota backfill: " + fixed + " legacy columns filled in");
+        }
     }
 
-    @Transactional(readOnly = true)
+    @Transactional
     public int remaining(User user) {
         UserQuota q = getOrCreate(user);
-        // used from table in case it's updated async; also cross-check with repository if needed
-        return Math.max(0, q.getLimitFiles() - q.getUsedFiles());
+        return Math.max(0, q.getLimitFiles() - q.getUsedFiles() - q.getReservedFiles());
     }
 
     @Transactional
-    public void incrementUsed(User user, int delta) {
+    public long remainingBytes(User user) {
         UserQuota q = getOrCreate(user);
-        q.setUsedFiles(q.getUsedFiles() + delta);
-        userQuotaRepository.save(q);
+        return Math.max(0, q.getLimitBytes() - q.getUsedBytes() - q.getReservedBytes());
     }
 
+    /**
+     * Holds {@code files} files and {@code bytes} bytes against the user's limits for uploads
+     * about to start. The check and the increment are one conditional UPDATE, so concurrent uploads
+     * cannot overshoot either limit. Returns false, changing nothing, when they do not fit. Each
+     * reservation must end in {@link #commit} or {@link #release}.
+     */
     @Transactional
-    public void decrementUsed(User user, int delta) {
-        UserQuota q = getOrCreate(user);
-        q.setUsedFiles(Math.max(0, q.getUsedFiles() - delta));
-        userQuotaRepository.save(q);
+    public boolean reserve(User user, int files, long bytes) {
+        if (files <= 0 && bytes <= 0) {
+            return true;
+        }
+        if (userQuotaRepository.reserve(user.getId(), files, bytes) == 1) {
+            return true;
+        }
+        // Either it does not fit or the user has no row yet; only the latter changes on retry
+        userQuotaRepository.insertIfAbsent(user.getId(), freeFileLimit, freeByteLimit);
+        return userQuotaRepository.reserve(user.getId(), files, bytes) == 1;
+    }
+
+    /**
+     * Reserves more bytes for an upload of unknown length as it streams: a whole grant step when
+     * that fits, so a large file costs one UPDATE per step rather than per read, otherwise exactly
+     * {@code atLeast}. Returns the bytes reserved, or 0 when even {@code atLeast} does not fit.
+     */
+    @Transactional
+    public long reserveStreamBytes(User user, long atLeast) {
+        // The upload reserved its file first, so the row exists
+        long step = Math.max(atLeast, grantStepBytes);
+        if (userQuotaRepository.reserve(user.getId(), 0, step) == 1) {
+            return step;
+        }
+        return step > atLeast && userQuotaRepository.reserve(user.getId(), 0, atLeast) == 1 ? atLeast : 0;
+    }
+
+    // The reserved files were stored, taking storedBytes of the reservedBytes held for them
+    @Transactional
+    public void commit(User user, int files, long reservedBytes, long storedBytes) {
+        if (files > 0 || reservedBytes > 0 || storedBytes > 0) {
+            userQuotaRepository.commit(user.getId(), files, reservedBytes, storedBytes);
+        }
+    }
+
+    // The reserved files were never stored
+    @Transactional
+    public void release(User user, int files, long bytes) {
+        if (files > 0 || bytes > 0) {
+            userQuotaRepository.release(user.getId(), files, bytes);
+        }
+    }
+
+    @Transactional
+    public void decrementUsed(User user, int files, long bytes) {
+        if (files > 0 || bytes > 0) {
+            userQuotaRepository.decrementUsed(user.getId(), files, bytes);
+        }
     }
 
     @Transactional
@@ -62,6 +142,7 @@ public class QuotaService {
         q.setSubscriptionId(subscriptionId);
         q.setSubscriptionStatus("active");
         q.setLimitFiles(limit);
+        q.setLimitBytes(subscriptionByteLimit);
         userQuotaRepository.save(q);
     }
 
@@ -71,7 +152,8 @@ public class QuotaService {
             q.setSubscriptionStatus(status);
             if ("inactive".equalsIgnoreCase(status)) {
                 // Revert to free tier limit but not below current used count
-                q.setLimitFiles(Math.max(freeFileLimit, q.getUsedFiles()));
+                q.setLimitFiles(Math.max(freeFileLimit, q.getUsedFiles() + q.getReservedFiles()));
+                q.setLimitBytes(Math.max(freeByteLimit, q.getUsedBytes() + q.getReservedBytes()));
             }
             userQuotaRepository.save(q);
         });
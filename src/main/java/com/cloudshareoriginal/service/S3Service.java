@@ -1,30 +1,88 @@
 package com.cloudshareoriginal.service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.Delete;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
 import java.net.URL;
 import java.time.Duration;
-import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @RequiredArgsConstructor
 public class S3Service {
 
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    // Upper bound for one resumable chunk
+    private static final int MAX_PART_SIZE = 64 * 1024 * 1024;
+
+    // Client bytes are staged in pooled segments of this size until a whole part has arrived
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    // Most keys S3 accepts in one DeleteObjects request
+    private static final int DELETE_BATCH_MAX = 1000;
+
     private final S3Client s3Client;
+    private final S3Presigner s3Presigner;
 
     @Value("${app.s3.bucket}")
     private String bucket;
@@ -32,6 +90,60 @@ public class S3Service {
     @Value("${app.aws.region}")
     private String region;
 
+    @Value("${app.s3.part-size-bytes:8388608}")
+    private int partSizeBytes;
+
+    @Value("${app.s3.part-buffers:16}")
+    private int partBufferCount;
+
+    @Value("${app.s3.upload-threads:8}")
+    private int uploadThreads;
+
+    // How long an upload waits for staging room before it is turned away with 503
+    @Value("${app.s3.buffer-wait-ms:10000}")
+    private long bufferWaitMillis;
+
+    // Bytes staged by all uploads together are capped at part-buffers * part-size, in segments
+    // that are pooled and reused
+    private Semaphore segmentPermits;
+    private final Queue<byte[]> freeSegments = new ConcurrentLinkedQueue<>();
+    private ExecutorService partUploadExecutor;
+
+    // DeleteObjects requests in flight at once for a bulk delete
+    @Value("${app.s3.delete-threads:4}")
+    private int deleteThreads;
+
+    private ExecutorService deleteExecutor;
+
+    @PostConstruct
+    void init() {
+        // S3 rejects non-final parts under 5 MiB
+        partSizeBytes = Math.max(partSizeBytes, MIN_PART_SIZE);
+        int segments = (int) Math.max(1, (long) Math.max(1, partBufferCount) * partSizeBytes / SEGMENT_SIZE);
+        segmentPermits = new Semaphore(segments);
+        AtomicInteger seq = new AtomicInteger();
+        int threads = Math.max(1, uploadThreads);
+        // Every queued part holds at least one segment, so the queue never needs more room than there are segments
+        partUploadExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(segments), r -> {
+            Thread t = new Thread(r, "s3-part-upload-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger deleteSeq = new AtomicInteger();
+        deleteExecutor = Executors.newFixedThreadPool(Math.max(1, deleteThreads), r -> {
+            Thread t = new Thread(r, "s3-delete-" + deleteSeq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        partUploadExecutor.shutdown();
+        deleteExecutor.shutdown();
+    }
+
     public String generateKey(Long userId, String originalName) {
         String safeName = originalName.replaceAll("[^a-zA-Z0-9._-]", "_");
         String uid = UUID.randomUUID().toString();
@@ -39,17 +151,73 @@ public class S3Service {
         return uid + "_" + safeName;
     }
 
-    public String uploadFile(Long userId, MultipartFile file) {
-        String key = generateKey(userId, Objects.requireNonNull(file.getOriginalFilename()));
+    // Accepts either a bare key or one of our public object URLs
+    public String keyOf(String s3UrlOrKey) {
+        if (s3UrlOrKey == null) return null;
+        if (s3UrlOrKey.startsWith("https://")) {
+            int idx = s3UrlOrKey.indexOf("amazonaws.com/");
+            if (idx != -1) {
+                return s3UrlOrKey.substring(idx + "amazonaws.com/".length());
+            }
+            int last = s3UrlOrKey.lastIndexOf("/");
+            return last != -1 ? s3UrlOrKey.substring(last + 1) : s3UrlOrKey;
+        }
+        return s3UrlOrKey;
+    }
+
+    // Canonical object URL stored on rows. Objects are private, so clients get presigned URLs instead
+    public String publicUrl(String key) {
+        return "https://" + bucket + ".s3." + region + ".amazonaws.com/" + key;
+    }
+
+    /**
+     * Presigns a PUT for a direct browser-to-S3 upload. Content type and length are part of the
+     * signature, so the client cannot upload something larger than what was reserved.
+     */
+    public PresignedPutObjectRequest presignPut(String key, String contentType, long size, Duration ttl) {
+        PutObjectRequest put = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType(contentType)
+                .contentLength(size)
+                .build();
+        return s3Presigner.presignPutObject(PutObjectPresignRequest.builder()
+                .signatureDuration(ttl)
+                .putObjectRequest(put)
+                .build());
+    }
+
+    /**
+     * Presigns a GET for a private object. A non-null {@code contentDisposition} is signed into
+     * the URL as the response-content-disposition override (inline vs. attachment download).
+     */
+    public String presignGet(String key, String contentDisposition, Duration ttl) {
+        GetObjectRequest get = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .responseContentDisposition(contentDisposition)
+                .build();
+        return s3Presigner.presignGetObject(GetObjectPresignRequest.builder()
+                .signatureDuration(ttl)
+                .getObjectRequest(get)
+                .build()).url().toString();
+    }
+
+    // Flattens the signed headers of a presigned request into what the client has to send back
+    public Map<String, String> signedHeaders(PresignedPutObjectRequest presigned) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> e : presigned.signedHeaders().entrySet()) {
+            if ("host".equalsIgnoreCase(e.getKey())) continue;
+            headers.put(e.getKey(), String.join(",", e.getValue()));
+        }
+        return headers;
+    }
+
+    public StoredObject uploadFile(String key, UploadPipeline in) throws UploadRejectedException {
         try {
-            PutObjectRequest put = PutObjectRequest.builder()
-                    .bucket(bucket)
-                    .key(key)
-                    .contentType(file.getContentType())
-                    .acl(ObjectCannedACL.PUBLIC_READ) // Make file public
-                    .build();
-            s3Client.putObject(put, RequestBody.fromInputStream(file.getInputStream(), file.getSize()));
-            return "https://" + bucket + ".s3." + region + ".amazonaws.com/" + key;
+            return putStream(key, in);
+        } catch (UploadRejectedException e) {
+            throw e;
         } catch (Exception e) {
             // Log the error details for debugging
             System.err.println("S3 upload failed: " + e.getMessage());
@@ -58,39 +226,414 @@ public class S3Service {
         }
     }
 
-    public String uploadProfilePhoto(Long userId, MultipartFile file) {
-        String safeName = Objects.requireNonNull(file.getOriginalFilename()).replaceAll("[^a-zA-Z0-9._-]", "_");
+    public String uploadProfilePhoto(Long userId, String originalName, UploadPipeline in) throws UploadRejectedException {
+        String safeName = Objects.requireNonNull(originalName).replaceAll("[^a-zA-Z0-9._-]", "_");
         String uid = java.util.UUID.randomUUID().toString();
         String key = "profile/" + userId + "/" + uid + "_" + safeName;
+        try {
+            putStream(key, in);
+            return publicUrl(key);
+        } catch (UploadRejectedException e) {
+            throw e;
+        } catch (Exception e) {
+            System.err.println("S3 profile photo upload failed: " + e.getMessage());
+            e.printStackTrace();
+            throw new RuntimeException("Failed to upload profile photo to S3: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Streams {@code in} to S3 without knowing its length up front. Anything that fits in one part
+     * goes out as a plain PUT; larger streams become a multipart upload whose parts are sent in
+     * parallel. Bytes are staged in pooled segments taken only as they arrive, and every staged or
+     * in-flight byte of every upload counts against one budget, so heap use stays within
+     * {@code app.s3.part-buffers * app.s3.part-size-bytes}. A small file holds only what it needs,
+     * and a stalled client only what it has sent; when no room frees up in time the upload fails
+     * with 503.
+     * The pipeline must compute SHA-256; its checksum and byte count describe the stored object.
+     */
+    public StoredObject putStream(String key, UploadPipeline in) throws IOException {
+        putParts(key, in.contentType(), in);
+        return new StoredObject(key, in.hex(UploadPipeline.SHA_256), in.bytesRead());
+    }
+
+    private void putParts(String key, String contentType, InputStream in) throws IOException {
+        Staged first = stage(in, partSizeBytes);
+        if (first.length == partSizeBytes) {
+            multipartUpload(key, contentType, first, in);
+            return;
+        }
         try {
             PutObjectRequest put = PutObjectRequest.builder()
                     .bucket(bucket)
                     .key(key)
-                    .contentType(file.getContentType())
-                    .acl(ObjectCannedACL.PUBLIC_READ)
+                    .contentType(contentType)
                     .build();
-            s3Client.putObject(put, RequestBody.fromInputStream(file.getInputStream(), file.getSize()));
-            return "https://" + bucket + ".s3." + region + ".amazonaws.com/" + key;
+            s3Client.putObject(put, first.body(contentType));
+        } finally {
+            first.release();
+        }
+    }
+
+    private void multipartUpload(String key, String contentType, Staged first, InputStream in) throws IOException {
+        String uploadId;
+        try {
+            uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .contentType(contentType)
+                    .build()).uploadId();
+        } catch (RuntimeException e) {
+            first.release();
+            throw e;
+        }
+
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<CompletedPart>> parts = new ArrayList<>();
+        try {
+            Staged part = first;
+            int partNumber = 1;
+            while (true) {
+                boolean last = part.length < partSizeBytes; // read before the part is handed off
+                parts.add(submitPart(key, uploadId, partNumber++, part, failed));
+                if (last) {
+                    break;
+                }
+                checkParts(parts);
+                part = stage(in, partSizeBytes);
+                if (part.length == 0) {
+                    break;
+                }
+            }
+
+            List<CompletedPart> completed = new ArrayList<>(parts.size());
+            for (Future<CompletedPart> f : parts) {
+                completed.add(awaitPart(f));
+            }
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                    .build());
+        } catch (IOException | RuntimeException e) {
+            // Let queued parts drain (they return their segments) before dropping the upload
+            failed.set(true);
+            for (Future<CompletedPart> f : parts) {
+                try {
+                    f.get();
+                } catch (Exception ignored) {
+                    // already failing
+                }
+            }
+            abortMultipart(key, uploadId);
+            throw e;
+        }
+    }
+
+    public int getPartSizeBytes() {
+        return partSizeBytes;
+    }
+
+    public String createMultipartUpload(String key, String contentType) {
+        return s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType(contentType)
+                .build()).uploadId();
+    }
+
+    /**
+     * Uploads exactly {@code length} bytes of {@code in} as one part of an existing multipart
+     * upload and returns its ETag. The bytes are staged in pooled segments so SDK retries can replay them.
+     */
+    public String uploadPart(String key, String uploadId, int partNumber, InputStream in, long length) throws IOException {
+        // Sessions keep the part size they were opened with, which may be above the current one
+        if (length <= 0 || length > MAX_PART_SIZE) {
+            throw new IllegalArgumentException("Chunk length must be between 1 and " + MAX_PART_SIZE + " bytes");
+        }
+        int len = (int) length;
+        Staged staged = stage(in, len);
+        try {
+            if (staged.length < len) {
+                throw new IllegalArgumentException("Chunk ended after " + staged.length + " of " + len + " bytes");
+            }
+            if (in.read() != -1) {
+                throw new IllegalArgumentException("Chunk is longer than " + len + " bytes");
+            }
+            return s3Client.uploadPart(UploadPartRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .partNumber(partNumber)
+                    .contentLength(length)
+                    .build(), staged.body(null)).eTag();
+        } finally {
+            staged.release();
+        }
+    }
+
+    public void completeMultipartUpload(String key, String uploadId, Map<Integer, String> etagsByPart) {
+        List<CompletedPart> parts = new ArrayList<>();
+        new TreeMap<>(etagsByPart).forEach((number, etag) ->
+                parts.add(CompletedPart.builder().partNumber(number).eTag(etag).build()));
+        s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                .build());
+    }
+
+    private Future<CompletedPart> submitPart(String key, String uploadId, int partNumber, Staged part,
+                                             AtomicBoolean failed) {
+        try {
+            return partUploadExecutor.submit(() -> {
+                try {
+                    if (failed.get()) {
+                        throw new IllegalStateException("Upload aborted");
+                    }
+                    UploadPartResponse resp = s3Client.uploadPart(UploadPartRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .uploadId(uploadId)
+                            .partNumber(partNumber)
+                            .contentLength((long) part.length)
+                            .build(), part.body(null));
+                    return CompletedPart.builder().partNumber(partNumber).eTag(resp.eTag()).build();
+                } finally {
+                    part.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            part.release();
+            throw e;
+        }
+    }
+
+    // Fails fast if an earlier part already errored instead of reading the rest of the stream
+    private void checkParts(List<Future<CompletedPart>> parts) {
+        for (Future<CompletedPart> f : parts) {
+            if (f.isDone()) {
+                awaitPart(f);
+            }
+        }
+    }
+
+    private CompletedPart awaitPart(Future<CompletedPart> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while uploading to S3", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException("Part upload failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    public void abortMultipart(String key, String uploadId) {
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
         } catch (Exception e) {
-            System.err.println("S3 profile photo upload failed: " + e.getMessage());
-            e.printStackTrace();
-            throw new RuntimeException("Failed to upload profile photo to S3: " + e.getMessage(), e);
+            System.err.println("Failed to abort multipart upload " + uploadId + ": " + e.getMessage());
         }
     }
 
+    private static int readFully(InputStream in, byte[] buf, int off, int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            int r = in.read(buf, off + read, len - read);
+            if (r < 0) break;
+            read += r;
+        }
+        return read;
+    }
+
+    // Reads up to max bytes into pooled segments. A segment is taken only once its first byte has
+    // arrived, so a stalled client ties up no more than it has sent
+    private Staged stage(InputStream in, int max) throws IOException {
+        Staged staged = new Staged();
+        try {
+            while (staged.length < max) {
+                int first = in.read();
+                if (first < 0) {
+                    break;
+                }
+                byte[] segment = borrowSegment();
+                staged.segments.add(segment);
+                segment[0] = (byte) first;
+                int want = Math.min(SEGMENT_SIZE, max - staged.length);
+                int n = 1 + readFully(in, segment, 1, want - 1);
+                staged.length += n;
+                if (n < want) {
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            staged.release();
+            throw e;
+        }
+        return staged;
+    }
+
+    // Bytes read from a client; every segment but the last is full
+    private final class Staged {
+        private final List<byte[]> segments = new ArrayList<>();
+        private int length;
+
+        // The provider may be invoked again on SDK retries, so it must re-read the same bytes
+        RequestBody body(String contentType) {
+            return RequestBody.fromContentProvider(this::open, length,
+                    contentType != null ? contentType : "application/octet-stream");
+        }
+
+        private InputStream open() {
+            List<InputStream> streams = new ArrayList<>(segments.size());
+            int left = length;
+            for (byte[] segment : segments) {
+                int n = Math.min(segment.length, left);
+                streams.add(new ByteArrayInputStream(segment, 0, n));
+                left -= n;
+            }
+            return new SequenceInputStream(Collections.enumeration(streams));
+        }
+
+        void release() {
+            for (byte[] segment : segments) {
+                releaseSegment(segment);
+            }
+            segments.clear();
+        }
+    }
+
+    private byte[] borrowSegment() throws IOException {
+        try {
+            if (!segmentPermits.tryAcquire(bufferWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new UploadRejectedException(HttpStatus.SERVICE_UNAVAILABLE, "The server is busy with other uploads, try again shortly");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an upload buffer");
+        }
+        byte[] segment = freeSegments.poll();
+        return segment != null ? segment : new byte[SEGMENT_SIZE];
+    }
+
+    private void releaseSegment(byte[] segment) {
+        freeSegments.offer(segment);
+        segmentPermits.release();
+    }
+
     public boolean headObjectExists(String key) {
         try {
             s3Client.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build());
             return true;
         } catch (NoSuchKeyException ex) {
             return false;
-        } catch (Exception e) {
-            // Be permissive on temporary S3 lag; caller can decide
-            return false;
+        } catch (S3Exception ex) {
+            // HEAD responses have no body, so a missing key often arrives as a bare 404. Anything
+            // else (throttling, a 5xx) says nothing about the object and must not read as "missing"
+            if (ex.statusCode() == 404) {
+                return false;
+            }
+            throw ex;
         }
     }
 
+    public InputStream openObject(String key) {
+        return s3Client.getObject(GetObjectRequest.builder().bucket(bucket).key(key).build());
+    }
+
+    /**
+     * Opens the object or one byte range of it ({@code range} is an HTTP Range value or null).
+     * An ifMatch that no longer matches fails with a 412 S3Exception. Callers that stop reading
+     * early should {@code abort()} the stream, otherwise closing it drains the rest.
+     */
+    public ResponseInputStream<GetObjectResponse> getObject(String key, String range, String ifMatch) {
+        return s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .range(range)
+                .ifMatch(ifMatch)
+                .build());
+    }
+
+    // For small generated objects (image derivatives) that are already in memory
+    public void putBytes(String key, String contentType, byte[] bytes) {
+        PutObjectRequest put = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType(contentType)
+                .build();
+        s3Client.putObject(put, RequestBody.fromBytes(bytes));
+    }
+
     public void deleteObject(String key) {
         s3Client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
     }
+
+    /**
+     * Deletes many objects with DeleteObjects, 1000 keys per request (the S3 maximum), with the
+     * requests running in parallel. Keys that do not exist count as deleted. Returns the keys
+     * that could not be deleted; nothing is thrown.
+     */
+    public List<String> deleteObjects(Collection<String> keys) {
+        List<String> all = new ArrayList<>(keys);
+        List<Future<List<String>>> chunks = new ArrayList<>();
+        for (int from = 0; from < all.size(); from += DELETE_BATCH_MAX) {
+            List<String> chunk = all.subList(from, Math.min(all.size(), from + DELETE_BATCH_MAX));
+            chunks.add(deleteExecutor.submit(() -> deleteChunk(chunk)));
+        }
+        List<String> failed = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            try {
+                failed.addAll(chunks.get(i).get());
+            } catch (ExecutionException e) {
+                List<String> chunk = all.subList(i * DELETE_BATCH_MAX, Math.min(all.size(), (i + 1) * DELETE_BATCH_MAX));
+                System.err.println("S3 bulk delete of " + chunk.size() + " objects failed: " + e.getCause().getMessage());
+                failed.addAll(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.addAll(all.subList(i * DELETE_BATCH_MAX, all.size()));
+                break;
+            }
+        }
+        return failed;
+    }
+
+    private List<String> deleteChunk(List<String> keys) {
+        List<ObjectIdentifier> objects = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            objects.add(ObjectIdentifier.builder().key(key).build());
+        }
+        // Quiet mode: the response only lists the keys that failed
+        DeleteObjectsResponse response = s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                .bucket(bucket)
+                .delete(Delete.builder().objects(objects).quiet(true).build())
+                .build());
+        List<String> failed = new ArrayList<>();
+        if (response != null && response.hasErrors()) {
+            for (S3Error error : response.errors()) {
+                System.err.println("Failed to delete S3 object " + error.key() + ": " + error.code() + " " + error.message());
+                failed.add(error.key());
+            }
+        }
+        return failed;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class StoredObject {
+        private final String key;
+        private final String sha256; // hex
+        private final long size;
+    }
 }
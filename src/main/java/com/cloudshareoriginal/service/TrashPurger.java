@@ -0,0 +1,113 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.repository.FileItemRepository;
+import com.cloudshareoriginal.repository.FileShareRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes trashed files for good once they have been in the trash for the retention period. Each
+ * batch is one short transaction: the oldest expired rows are locked, their shares, upload parts
+ * and rows go in one bulk statement each, and the blobs they held are released; objects nobody
+ * references any more are then removed with bulk S3 deletes after the commit. Quota is not touched:
+ * trashed files stopped counting when they were deleted.
+ */
+@Service
+@RequiredArgsConstructor
+public class TrashPurger {
+
+    private final FileItemRepository fileItemRepository;
+    private final FileShareRepository fileShareRepository;
+    private final BlobService blobService;
+    private final PlatformTransactionManager transactionManager;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.trash.retention-days:30}")
+    private int retentionDays;
+
+    @Value("${app.trash.purge-batch:1000}")
+    private int batchSize;
+
+    // Bounds one run, so a large backlog is worked off over several runs
+    @Value("${app.trash.purge-max-batches:100}")
+    private int maxBatches;
+
+    private TransactionTemplate batchTransaction;
+    private Counter purgedCounter;
+    private Timer runTimer;
+
+    @PostConstruct
+    void init() {
+        batchTransaction = new TransactionTemplate(transactionManager);
+        purgedCounter = Counter.builder("cloudshare.trash.purged")
+                .description("Trashed files removed for good")
+                .register(meterRegistry);
+        runTimer = Timer.builder("cloudshare.trash.purge.duration")
+                .description("Time taken by one trash purge run")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${app.trash.purge-initial-delay-ms:120000}",
+            fixedDelayString = "${app.trash.purge-interval-ms:600000}")
+    public void scheduledRun() {
+        try {
+            purge();
+        } catch (RuntimeException e) {
+            System.err.println("Trash purge failed: " + e.getMessage());
+        }
+    }
+
+    /** Purges expired trash, batch by batch, and returns how many files were removed. */
+    public long purge() {
+        return runTimer.record(() -> {
+            Instant cutoff = Instant.now().minus(Duration.ofDays(Math.max(0, retentionDays)));
+            int size = Math.max(1, batchSize);
+            long total = 0;
+            for (int i = 0; i < Math.max(1, maxBatches); i++) {
+                Integer purged = batchTransaction.execute(tx -> purgeBatch(cutoff, size));
+                int n = purged != null ? purged : 0;
+                total += n;
+                if (n < size) {
+                    break;
+                }
+            }
+            if (total > 0) {
+                System.err.println("Trash purge: " + total + " files removed");
+            }
+            return total;
+        });
+    }
+
+    private int purgeBatch(Instant cutoff, int size) {
+        List<FileItem> files = fileItemRepository.findExpiredTrashForUpdate(cutoff, PageRequest.of(0, size));
+        if (files.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = new ArrayList<>(files.size());
+        for (FileItem fi : files) {
+            ids.add(fi.getId());
+        }
+        // Children first, then the files; the blob rows can only go once nothing points at them
+        fileShareRepository.deleteAllByFileIds(ids);
+        fileItemRepository.deleteUploadParts(ids);
+        fileItemRepository.deleteAllByIdInBatch(ids);
+        blobService.releaseAll(files);
+        purgedCounter.increment(files.size());
+        return files.size();
+    }
+}
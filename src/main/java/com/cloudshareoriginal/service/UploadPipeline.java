@@ -0,0 +1,335 @@
+package com.cloudshareoriginal.service;
+
+import org.springframework.http.HttpStatus;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single-pass inspection of an upload. The source stream is wrapped once and every stage sees each
+ * byte as the consumer (normally the S3 part reader) pulls it, so limits are enforced and checksums
+ * computed without a second read or a local copy. A violation fails the read with an
+ * {@link UploadRejectedException}, which aborts the transfer at that point.
+ *
+ * <p>{@link Builder#open()} reads the first block up front and sniffs the real content type from
+ * its magic bytes, so a mislabelled upload is rejected (or relabelled) before anything reaches S3.
+ */
+public final class UploadPipeline extends FilterInputStream {
+
+    public static final String SHA_256 = "SHA-256";
+
+    private static final String OCTET_STREAM = "application/octet-stream";
+
+    // Long enough for every signature below (ftyp sits at offset 4, WEBP at 8) and for the PE
+    // header of a typical Windows executable, which the MZ stub points to
+    private static final int HEAD_SIZE = 512;
+
+    // Types we can recognise; a file declared as one of these must actually look like it
+    private static final Set<String> SNIFFABLE = Set.of(
+            "image/png", "image/jpeg", "image/gif", "image/webp",
+            "application/pdf", "application/zip", "application/gzip");
+
+    private interface Stage {
+        void update(byte[] b, int off, int len) throws UploadRejectedException;
+    }
+
+    /**
+     * Hands out storage to an upload as it streams. Asked for at least {@code atLeast} more bytes,
+     * it returns how many it granted; anything less than {@code atLeast} stops the upload.
+     */
+    @FunctionalInterface
+    public interface Allowance {
+        long grant(long atLeast);
+    }
+
+    private final List<Stage> stages;
+    private final Map<String, MessageDigest> digests;
+    private final String contentType;
+    private final byte[] head;
+    private final int headLength;
+    private int headPos;
+    private long bytesRead;
+
+    private UploadPipeline(InputStream in, List<Stage> stages, Map<String, MessageDigest> digests,
+                           String contentType, byte[] head, int headLength) {
+        super(in);
+        this.stages = stages;
+        this.digests = digests;
+        this.contentType = contentType;
+        this.head = head;
+        this.headLength = headLength;
+        this.bytesRead = headLength;
+    }
+
+    public static Builder from(InputStream in) {
+        return new Builder(in);
+    }
+
+    // Declared type, or the sniffed one when the declaration was missing or wrong
+    public String contentType() {
+        return contentType;
+    }
+
+    // Bytes pulled from the source so far; the full length once the consumer has hit EOF
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    // Hex checksum of everything read; only meaningful once the stream is exhausted
+    public String hex(String algorithm) {
+        MessageDigest digest = digests.get(algorithm);
+        if (digest == null) {
+            throw new IllegalStateException(algorithm + " was not requested for this upload");
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (headPos < headLength) {
+            return head[headPos++] & 0xff;
+        }
+        int b = in.read();
+        if (b >= 0) {
+            inspect(new byte[]{(byte) b}, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (headPos < headLength) {
+            int n = Math.min(len, headLength - headPos);
+            System.arraycopy(head, headPos, b, off, n);
+            headPos += n;
+            return n;
+        }
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            inspect(b, off, n);
+        }
+        return n;
+    }
+
+    // Every byte has to pass through the stages, so skipping reads too
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] scratch = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+            if (r < 0) break;
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (headLength - headPos) + in.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void inspect(byte[] b, int off, int len) throws UploadRejectedException {
+        bytesRead += len;
+        for (Stage stage : stages) {
+            stage.update(b, off, len);
+        }
+    }
+
+    public static final class Builder {
+        private final InputStream in;
+        private long maxBytes = -1;
+        private Allowance allowance;
+        private long allowed;
+        private String allowanceMessage;
+        private boolean sniff;
+        private String declaredType;
+        private String requiredPrefix;
+        private String requiredMessage;
+        private final List<String> algorithms = new ArrayList<>();
+
+        private Builder(InputStream in) {
+            this.in = in;
+        }
+
+        // Fails the read as soon as more than maxBytes have arrived
+        public Builder limit(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Reads only as many bytes as {@code allowance} grants, starting with {@code granted} that
+         * are already held, so a quota is enforced while the bytes arrive, not after.
+         */
+        public Builder allowance(long granted, Allowance allowance, String message) {
+            this.allowed = granted;
+            this.allowance = allowance;
+            this.allowanceMessage = message;
+            return this;
+        }
+
+        // Checks the declared type against the magic bytes of the first block
+        public Builder sniff(String declaredType) {
+            this.sniff = true;
+            this.declaredType = declaredType;
+            return this;
+        }
+
+        // Only accepts content whose sniffed type starts with typePrefix, e.g. "image/"
+        public Builder require(String typePrefix, String message) {
+            this.requiredPrefix = typePrefix;
+            this.requiredMessage = message;
+            return this;
+        }
+
+        public Builder digest(String algorithm) {
+            algorithms.add(algorithm);
+            return this;
+        }
+
+        /**
+         * Reads the first block, runs it through the stages and resolves the content type.
+         * Nothing has been handed to the caller yet, so a rejection here costs one small read.
+         */
+        public UploadPipeline open() throws IOException {
+            List<Stage> stages = new ArrayList<>();
+            if (maxBytes >= 0) {
+                long max = maxBytes;
+                long[] total = {0};
+                stages.add((b, off, len) -> {
+                    total[0] += len;
+                    if (total[0] > max) {
+                        throw new UploadRejectedException(HttpStatus.PAYLOAD_TOO_LARGE, "File too large (max " + max + " bytes)");
+                    }
+                });
+            }
+            if (allowance != null) {
+                Allowance source = allowance;
+                String message = allowanceMessage;
+                long[] total = {0};
+                long[] granted = {allowed};
+                stages.add((b, off, len) -> {
+                    total[0] += len;
+                    if (total[0] > granted[0]) {
+                        long needed = total[0] - granted[0];
+                        long more = source.grant(needed);
+                        granted[0] += more;
+                        if (more < needed) {
+                            throw new UploadRejectedException(HttpStatus.PAYLOAD_TOO_LARGE, message);
+                        }
+                    }
+                });
+            }
+            Map<String, MessageDigest> digests = new LinkedHashMap<>();
+            for (String algorithm : algorithms) {
+                MessageDigest digest;
+                try {
+                    digest = MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+                digests.put(algorithm, digest);
+                stages.add(digest::update);
+            }
+
+            byte[] head = new byte[HEAD_SIZE];
+            int n = 0;
+            while (n < head.length) {
+                int r = in.read(head, n, head.length - n);
+                if (r < 0) break;
+                n += r;
+            }
+            for (Stage stage : stages) {
+                stage.update(head, 0, n);
+            }
+
+            String detected = detect(head, n);
+            if (requiredPrefix != null && (detected == null || !detected.startsWith(requiredPrefix))) {
+                throw new UploadRejectedException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, requiredMessage);
+            }
+            String contentType = sniff || requiredPrefix != null ? resolve(declaredType, detected) : declaredType;
+            return new UploadPipeline(in, stages, digests, contentType, head, n);
+        }
+    }
+
+    // Keeps the declared type when the bytes agree with it, otherwise trusts the bytes
+    static String resolve(String declared, String detected) throws UploadRejectedException {
+        String base = declared == null ? "" : declared.split(";")[0].trim().toLowerCase(Locale.ROOT);
+        if (detected == null) {
+            if (SNIFFABLE.contains(base)) {
+                throw new UploadRejectedException(HttpStatus.UNSUPPORTED_MEDIA_TYPE,
+                        "Content does not match declared type " + declared);
+            }
+            return base.isEmpty() ? OCTET_STREAM : declared;
+        }
+        return base.equals(detected) || compatible(detected, base) ? declared : detected;
+    }
+
+    // Container formats carry many declared types (docx is a zip, m4a is an mp4, ...)
+    private static boolean compatible(String detected, String declared) {
+        return switch (detected) {
+            case "application/zip" -> declared.contains("zip") || declared.contains("openxmlformats")
+                    || declared.startsWith("application/vnd.oasis.opendocument")
+                    || declared.equals("application/java-archive");
+            case "application/gzip" -> declared.contains("gzip");
+            case "video/mp4" -> declared.startsWith("video/") || declared.startsWith("audio/")
+                    || declared.equals("image/heic") || declared.equals("image/heif") || declared.equals("image/avif");
+            case "image/jpeg" -> declared.equals("image/jpg") || declared.equals("image/pjpeg");
+            default -> false;
+        };
+    }
+
+    static String detect(byte[] h, int n) {
+        if (at(h, n, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) return "image/png";
+        if (at(h, n, 0, 0xFF, 0xD8, 0xFF)) return "image/jpeg";
+        if (at(h, n, 0, 'G', 'I', 'F', '8')) return "image/gif";
+        if (at(h, n, 0, 'R', 'I', 'F', 'F') && at(h, n, 8, 'W', 'E', 'B', 'P')) return "image/webp";
+        if (at(h, n, 0, '%', 'P', 'D', 'F', '-')) return "application/pdf";
+        if (at(h, n, 0, 'P', 'K', 0x03, 0x04) || at(h, n, 0, 'P', 'K', 0x05, 0x06)) return "application/zip";
+        if (at(h, n, 0, 0x1F, 0x8B)) return "application/gzip";
+        if (at(h, n, 4, 'f', 't', 'y', 'p')) return "video/mp4";
+        if (at(h, n, 0, 0x7F, 'E', 'L', 'F')) return "application/x-executable";
+        if (at(h, n, 0, 'M', 'Z') && isPortableExecutable(h, n)) return "application/x-msdownload";
+        return null;
+    }
+
+    // "MZ" alone is two printable letters; a real executable has a PE signature where 0x3C says
+    private static boolean isPortableExecutable(byte[] h, int n) {
+        if (n < 0x40) {
+            return false;
+        }
+        long offset = (h[0x3C] & 0xffL) | (h[0x3D] & 0xffL) << 8 | (h[0x3E] & 0xffL) << 16 | (h[0x3F] & 0xffL) << 24;
+        return offset >= 0x40 && offset <= n - 4 && at(h, n, (int) offset, 'P', 'E', 0, 0);
+    }
+
+    private static boolean at(byte[] h, int n, int offset, int... signature) {
+        if (offset + signature.length > n) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((h[offset + i] & 0xff) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,22 @@
+package com.cloudshareoriginal.service;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+
+/**
+ * Raised by an {@link UploadPipeline} stage while the upload is being read. It is an
+ * {@link IOException} so it unwinds through the S3 transfer like any other read failure,
+ * and carries the status the client should see.
+ */
+@Getter
+public class UploadRejectedException extends IOException {
+
+    private final HttpStatus status;
+
+    public UploadRejectedException(HttpStatus status, String message) {
+        super(message);
+        this.status = status;
+    }
+}
@@ -0,0 +1,139 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.repository.FileItemRepository;
+import com.cloudshareoriginal.repository.FileShareRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Removes uploads the client walked away from. A presigned upload whose URL expired a while ago
+ * without upload-complete, a resumable session that has received no chunk for the TTL, or a
+ * server-streamed upload far older than any transfer could take (its server died mid-upload) is
+ * dropped: the row goes, its quota reservation is given back, and whatever reached S3 is deleted
+ * (or the multipart upload aborted) after the commit. Without this the reservation would be held
+ * for good, and a free user with a few abandoned uploads could never upload again.
+ */
+@Service
+@RequiredArgsConstructor
+public class UploadSweeper {
+
+    private final FileItemRepository fileItemRepository;
+    private final FileShareRepository fileShareRepository;
+    private final BlobService blobService;
+    private final QuotaService quotaService;
+    private final PlatformTransactionManager transactionManager;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.files.presign-put-ttl-seconds:900}")
+    private long presignPutTtlSeconds;
+
+    // How long after its URL expires a presigned upload may still be completed
+    @Value("${app.files.upload-expiry-grace-ms:3600000}")
+    private long graceMillis;
+
+    // How long a resumable session may go without a chunk before it is aborted
+    @Value("${app.files.resumable-ttl-ms:86400000}")
+    private long resumableTtlMillis;
+
+    // Streamed uploads finish or fail while the request is open; one this old has lost its server
+    @Value("${app.files.stream-upload-ttl-ms:21600000}")
+    private long streamTtlMillis;
+
+    @Value("${app.files.upload-sweep-batch:500}")
+    private int batchSize;
+
+    @Value("${app.files.upload-sweep-max-batches:20}")
+    private int maxBatches;
+
+    private TransactionTemplate batchTransaction;
+    private Counter expiredCounter;
+
+    @PostConstruct
+    void init() {
+        batchTransaction = new TransactionTemplate(transactionManager);
+        expiredCounter = Counter.builder("cloudshare.uploads.expired")
+                .description("Abandoned uploads removed by the sweep")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${app.files.upload-sweep-initial-delay-ms:60000}",
+            fixedDelayString = "${app.files.upload-sweep-interval-ms:600000}")
+    public void scheduledRun() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            System.err.println("Upload sweep failed: " + e.getMessage());
+        }
+    }
+
+    /** Removes expired uploads, batch by batch, and returns how many there were. */
+    public long sweep() {
+        Instant now = Instant.now();
+        Instant presignedCutoff = now.minusSeconds(presignPutTtlSeconds).minusMillis(graceMillis);
+        Instant resumableCutoff = now.minusMillis(resumableTtlMillis);
+        Instant streamedCutoff = now.minusMillis(streamTtlMillis);
+        long total = sweep(page -> fileItemRepository.findStalePresignedForUpdate(presignedCutoff, page))
+                + sweep(page -> fileItemRepository.findStaleResumableForUpdate(resumableCutoff, page))
+                + sweep(page -> fileItemRepository.findStaleStreamedForUpdate(streamedCutoff, page));
+        if (total > 0) {
+            System.err.println("Upload sweep: " + total + " abandoned uploads removed");
+        }
+        return total;
+    }
+
+    private long sweep(Function<Pageable, List<FileItem>> stale) {
+        int size = Math.max(1, batchSize);
+        long total = 0;
+        for (int i = 0; i < Math.max(1, maxBatches); i++) {
+            Integer swept = batchTransaction.execute(tx -> expire(stale.apply(PageRequest.of(0, size))));
+            int n = swept != null ? swept : 0;
+            total += n;
+            if (n < size) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    private int expire(List<FileItem> files) {
+        if (files.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = new ArrayList<>(files.size());
+        Map<Long, User> owners = new HashMap<>();
+        Map<Long, long[]> held = new HashMap<>();
+        for (FileItem fi : files) {
+            ids.add(fi.getId());
+            User owner = fi.getOwner();
+            owners.putIfAbsent(owner.getId(), owner);
+            long[] h = held.computeIfAbsent(owner.getId(), k -> new long[2]);
+            h[0]++;
+            h[1] += fi.getSize() != null ? Math.max(0, fi.getSize()) : 0;
+        }
+        fileShareRepository.deleteAllByFileIds(ids);
+        fileItemRepository.deleteUploadParts(ids);
+        fileItemRepository.deleteAllByIdInBatch(ids);
+        blobService.releaseAll(files);
+        held.forEach((ownerId, h) -> quotaService.release(owners.get(ownerId), (int) h[0], h[1]));
+        expiredCounter.increment(files.size());
+        return files.size();
+    }
+}
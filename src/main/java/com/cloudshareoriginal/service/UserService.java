@@ -4,17 +4,16 @@ import com.cloudshareoriginal.dto.UserEmailResponse;
 import com.cloudshareoriginal.dto.UserProfileResponse;
 import com.cloudshareoriginal.model.User;
 import com.cloudshareoriginal.repository.UserRepository;
-import com.cloudshareoriginal.repository.FileItemRepository;
-import com.cloudshareoriginal.repository.UserQuotaRepository;
-import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.security.CurrentUser;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -24,17 +23,16 @@ public class UserService {
 
     private final UserRepository userRepository;
     private final S3Service s3Service;
+    private final ImageDerivativeService imageDerivativeService;
+    private final PresignedUrlService presignedUrlService;
     private final QuotaService quotaService;
-    private final FileItemRepository fileItemRepository;
-    private final UserQuotaRepository userQuotaRepository;
+    private final CurrentUser currentUsers;
 
     @Value("${app.profile.max-size-bytes:5242880}")
     private long maxProfileSizeBytes;
 
     private User currentUser() {
-        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-        String email = auth.getName();
-        return userRepository.findByEmail(email).orElseThrow();
+        return currentUsers.load();
     }
 
     public UserProfileResponse getCurrentUserProfile() {
@@ -46,7 +44,8 @@ public class UserService {
                 .firstName(user.getFirstName())
                 .lastName(user.getLastName())
                 .role(user.getRole())
-                .profileImageUrl(user.getProfileImageUrl())
+                .profileImageUrl(presignedUrlService.inline(user.getProfileImageUrl()))
+                .profileAvatarUrl(presignedUrlService.inline(user.getProfileAvatarUrl()))
                 .emailVerified(Boolean.TRUE.equals(user.getEmailVerified()))
                 .premium(premium)
                 .build();
@@ -59,18 +58,19 @@ public class UserService {
             return List.of();
         }
         int capped = Math.max(1, Math.min(limit <= 0 ? 10 : limit, 20));
-        User me = currentUser();
+        Long myId = currentUsers.id();
         // repository provides top 10; if caller asks less, we'll subList; if more, we still cap at 10
         List<User> initial = userRepository.findTop10ByEmailStartingWithIgnoreCase(q);
         // exclude self and map
         List<UserEmailResponse> mapped = initial.stream()
-                .filter(u -> !u.getId().equals(me.getId()))
+                .filter(u -> !u.getId().equals(myId))
                 .map(u -> UserEmailResponse.builder()
                         .id(u.getId())
                         .email(u.getEmail())
                         .firstName(u.getFirstName())
                         .lastName(u.getLastName())
-                        .profileImageUrl(u.getProfileImageUrl())
+                        .profileImageUrl(presignedUrlService.inline(u.getProfileImageUrl()))
+                        .profileAvatarUrl(presignedUrlService.inline(u.getProfileAvatarUrl()))
                         .build())
                 .collect(Collectors.toList());
         if (mapped.size() > capped) {
@@ -81,15 +81,15 @@ public class UserService {
 
     public List<UserEmailResponse> listUserEmails(int limit) {
         int capped = Math.max(1, Math.min(limit <= 0 ? 10 : limit, 50));
-        User me = currentUser();
-        List<User> initial = userRepository.findTop50ByIdNotOrderByEmailAsc(me.getId());
+        List<User> initial = userRepository.findTop50ByIdNotOrderByEmailAsc(currentUsers.id());
         List<UserEmailResponse> mapped = initial.stream()
                 .map(u -> UserEmailResponse.builder()
                         .id(u.getId())
                         .email(u.getEmail())
                         .firstName(u.getFirstName())
                         .lastName(u.getLastName())
-                        .profileImageUrl(u.getProfileImageUrl())
+                        .profileImageUrl(presignedUrlService.inline(u.getProfileImageUrl()))
+                        .profileAvatarUrl(presignedUrlService.inline(u.getProfileAvatarUrl()))
                         .build())
                 .collect(Collectors.toList());
         if (mapped.size() > capped) {
@@ -98,7 +98,7 @@ public class UserService {
         return mapped;
     }
 
-    @Transactional
+    // Not transactional: the S3 transfer must not pin a DB connection
     public String uploadProfilePhoto(MultipartFile photo) {
         if (photo == null || photo.isEmpty()) {
             throw new IllegalArgumentException("No photo provided");
@@ -106,67 +106,46 @@ public class UserService {
         if (photo.getSize() > maxProfileSizeBytes) {
             throw new IllegalArgumentException("Profile photo is too large");
         }
-        String contentType = photo.getContentType();
-        if (contentType == null || !contentType.toLowerCase().startsWith("image/")) {
-            throw new IllegalArgumentException("Only image files are allowed");
-        }
 
         User user = currentUser();
-        String url = s3Service.uploadProfilePhoto(user.getId(), photo);
+        String url;
+        UploadPipeline inspected;
+        // The declared type is not trusted: the magic bytes have to say image as well
+        try (InputStream in = photo.getInputStream()) {
+            inspected = UploadPipeline.from(in)
+                    .limit(maxProfileSizeBytes)
+                    .require("image/", "Only image files are allowed")
+                    .digest(UploadPipeline.SHA_256)
+                    .open();
+            url = s3Service.uploadProfilePhoto(user.getId(), photo.getOriginalFilename(), inspected);
+        } catch (UploadRejectedException e) {
+            if (e.getStatus() == HttpStatus.SERVICE_UNAVAILABLE) {
+                throw new ResponseStatusException(e.getStatus(), e.getMessage());
+            }
+            throw new IllegalArgumentException(e.getMessage());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read profile photo: " + e.getMessage(), e);
+        }
+        String previousUrl = user.getProfileImageUrl();
         user.setProfileImageUrl(url);
+        user.setProfileAvatarUrl(null); // the old avatar no longer matches; clients fall back to the photo
         userRepository.save(user);
-        return url;
+        imageDerivativeService.scheduleForUser(user.getId(), url, inspected.contentType());
+        deletePreviousPhoto(user.getId(), previousUrl);
+        return presignedUrlService.inline(url);
     }
 
-    @Transactional
-    public void deleteCurrentUser() {
-        User user = currentUser();
-
-        // Delete all files (DB + S3)
-        java.util.List<FileItem> files = fileItemRepository.findAllByOwnerIdOrderByCreatedAtDesc(user.getId());
-        for (FileItem fi : files) {
-            String key = extractS3Key(fi.getS3Key());
-            try {
-                s3Service.deleteObject(key);
-            } catch (Exception e) {
-                // Log and continue to ensure account deletion proceeds
-                System.err.println("Failed to delete S3 object for file id " + fi.getId() + ": " + e.getMessage());
-            }
-        }
-        if (!files.isEmpty()) {
-            fileItemRepository.deleteAll(files);
-        }
-
-        // Delete profile photo from S3 if present
-        if (user.getProfileImageUrl() != null && !user.getProfileImageUrl().isBlank()) {
-            try {
-                String profileKey = extractS3Key(user.getProfileImageUrl());
-                s3Service.deleteObject(profileKey);
-            } catch (Exception e) {
-                System.err.println("Failed to delete profile photo: " + e.getMessage());
-            }
+    // Only once the new URL is saved: nothing points at the old photo or its avatar any more
+    private void deletePreviousPhoto(Long userId, String previousUrl) {
+        String key = s3Service.keyOf(previousUrl);
+        if (key == null || !key.startsWith("profile/" + userId + "/")) {
+            return;
         }
-
-        // Delete quota row if exists
-        userQuotaRepository.findByUserId(user.getId()).ifPresent(userQuotaRepository::delete);
-
-        // Finally delete the user account
-        userRepository.delete(user);
-
-        // Optionally clear security context (not strictly required)
-        org.springframework.security.core.context.SecurityContextHolder.clearContext();
-    }
-
-    private String extractS3Key(String s3UrlOrKey) {
-        if (s3UrlOrKey == null) return null;
-        if (s3UrlOrKey.startsWith("https://")) {
-            int idx = s3UrlOrKey.indexOf("amazonaws.com/");
-            if (idx != -1) {
-                return s3UrlOrKey.substring(idx + "amazonaws.com/".length());
-            }
-            int last = s3UrlOrKey.lastIndexOf("/");
-            return last != -1 ? s3UrlOrKey.substring(last + 1) : s3UrlOrKey;
+        try {
+            s3Service.deleteObject(key);
+        } catch (Exception e) {
+            System.err.println("Failed to delete previous profile photo " + key + ": " + e.getMessage());
         }
-        return s3UrlOrKey;
+        imageDerivativeService.deleteDerivatives(key);
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,11 @@
 package com.cloudshareoriginal.utils;
 
+import java.util.Locale;
+
 public final class EmailUtils {
     private EmailUtils() {}
 
     public static String normalize(String email) {
-        return email == null ? null : email.trim().toLowerCase();
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
     }
 }
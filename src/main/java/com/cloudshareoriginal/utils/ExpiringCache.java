@@ -0,0 +1,78 @@
+package com.cloudshareoriginal.utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Small bounded cache whose entries expire a fixed time after they were computed. Lookups are a
+ * single map read; the size bound is enforced on insert by sweeping expired entries first and then
+ * dropping arbitrary ones, which is good enough for values that are cheap to recompute.
+ */
+public final class ExpiringCache<K, V> {
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    public ExpiringCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    // Concurrent misses on the same key may both compute; the last one wins
+    public V get(K key, Function<K, V> loader) {
+        return get(key, loader, null);
+    }
+
+    /**
+     * As {@link #get(Object, Function)}, but a loaded value may shorten its own lifetime:
+     * {@code ttlMillisOf} returns how long it stays usable, capped at the cache's TTL.
+     */
+    public V get(K key, Function<K, V> loader, ToLongFunction<V> ttlMillisOf) {
+        long now = System.nanoTime();
+        Entry<V> e = entries.get(key);
+        if (e != null && now - e.expiresAt < 0) {
+            return e.value;
+        }
+        V value = loader.apply(key);
+        if (value != null) {
+            long ttl = ttlNanos;
+            if (ttlMillisOf != null) {
+                ttl = Math.min(ttl, ttlMillisOf.applyAsLong(value) * 1_000_000L);
+                if (ttl <= 0) {
+                    return value;
+                }
+            }
+            entries.put(key, new Entry<>(value, now + ttl));
+            if (entries.size() > maxEntries) {
+                evict(now);
+            }
+        }
+        return value;
+    }
+
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void evict(long now) {
+        entries.values().removeIf(e -> now - e.expiresAt >= 0);
+        // Still full of live entries: free a tenth so the next inserts do not sweep again
+        int target = maxEntries - maxEntries / 10;
+        Iterator<K> it = entries.keySet().iterator();
+        while (entries.size() > target && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+}
@@ -0,0 +1,38 @@
+package com.cloudshareoriginal.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Position in a listing ordered by (timestamp desc, id desc). The next page is everything strictly
+ * after the last row returned, so any page costs one index range scan, however deep it is. Clients
+ * get it as an opaque token and hand it back unchanged.
+ */
+public record KeysetCursor(Instant at, long id) {
+
+    // Sorts before every real row, so the first page uses the same query as the rest
+    public static final KeysetCursor FIRST = new KeysetCursor(Instant.parse("9999-12-31T23:59:59Z"), Long.MAX_VALUE);
+
+    public String encode() {
+        String raw = at.getEpochSecond() + "." + at.getNano() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** Null or blank means the first page; anything we did not issue is an IllegalArgumentException. */
+    public static KeysetCursor decode(String token) {
+        if (token == null || token.isBlank()) {
+            return FIRST;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII);
+            int dot = raw.indexOf('.');
+            int colon = raw.indexOf(':');
+            Instant at = Instant.ofEpochSecond(Long.parseLong(raw.substring(0, dot)),
+                    Long.parseLong(raw.substring(dot + 1, colon)));
+            return new KeysetCursor(at, Long.parseLong(raw.substring(colon + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
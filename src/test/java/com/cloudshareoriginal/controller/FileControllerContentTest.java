@@ -0,0 +1,198 @@
+package com.cloudshareoriginal.controller;
+
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.repository.FileItemRepository;
+import com.cloudshareoriginal.repository.UserRepository;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * The /content proxy has to answer Range and If-Range the way HTTP caches and video players expect:
+ * one range gives 206, a validator that no longer matches gives the whole object, a range past the
+ * end gives 416, and a client that hangs up stops the S3 read instead of draining it.
+ */
+@SpringBootTest
+class FileControllerContentTest {
+
+    private static final byte[] CONTENT = "hello world".getBytes(StandardCharsets.US_ASCII);
+    private static final String ETAG = "\"v1\"";
+    private static final Instant LAST_MODIFIED = Instant.parse("2026-03-01T10:15:30.250Z");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    @MockitoBean
+    private S3Client s3Client;
+
+    @Autowired
+    private FileController fileController;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FileItemRepository fileItemRepository;
+
+    private User owner;
+    private FileItem file;
+    private final AtomicBoolean aborted = new AtomicBoolean();
+
+    @BeforeEach
+    void seed() {
+        owner = userRepository.save(User.builder().email("content-owner@example.com").password("x").emailVerified(true).build());
+        file = fileItemRepository.save(FileItem.builder()
+                .owner(owner)
+                .originalName("hello.txt")
+                .contentType("text/plain")
+                .s3Key("https://bucket.s3.amazonaws.com/content/hello")
+                .size((long) CONTENT.length)
+                .visibility(FileItem.Visibility.PUBLIC)
+                .status(FileItem.Status.READY)
+                .build());
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(inv -> serve(inv.getArgument(0)));
+    }
+
+    @AfterEach
+    void cleanUp() {
+        fileItemRepository.delete(file);
+        userRepository.delete(owner);
+    }
+
+    @Test
+    void singleRangeIsServedAsPartialContent() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        fileController.content(file.getId(), false, "bytes=2-5", null, response);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/11");
+        assertThat(response.getContentAsString()).isEqualTo("llo ");
+    }
+
+    @Test
+    void staleEntityTagGetsTheWholeObject() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        fileController.content(file.getId(), false, "bytes=2-5", "\"v0\"", response);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(response.getContentAsString()).isEqualTo("hello world");
+    }
+
+    @Test
+    void dateMustEqualLastModifiedExactly() throws IOException {
+        MockHttpServletResponse same = new MockHttpServletResponse();
+        fileController.content(file.getId(), false, "bytes=2-5", httpDate(LAST_MODIFIED), same);
+        assertThat(same.getStatus()).isEqualTo(206);
+
+        // Later than Last-Modified would pass If-Unmodified-Since, but it is not the same validator
+        MockHttpServletResponse later = new MockHttpServletResponse();
+        fileController.content(file.getId(), false, "bytes=2-5", httpDate(LAST_MODIFIED.plusSeconds(60)), later);
+        assertThat(later.getStatus()).isEqualTo(200);
+        assertThat(later.getContentAsString()).isEqualTo("hello world");
+        assertThat(aborted).isTrue(); // the unused ranged read was dropped, not drained
+    }
+
+    @Test
+    void rangePastTheEndIsNotSatisfiable() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        fileController.content(file.getId(), false, "bytes=50-", null, response);
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */11");
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void clientDisconnectAbortsTheS3Read() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse() {
+            @Override
+            public ServletOutputStream getOutputStream() {
+                return new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        throw new IOException("Broken pipe");
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        throw new IOException("Broken pipe");
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener listener) {
+                    }
+                };
+            }
+        };
+        fileController.content(file.getId(), false, null, null, response);
+
+        assertThat(aborted).isTrue();
+    }
+
+    // Enough of S3's GetObject: If-Match, a single range, and 416 past the end
+    private ResponseInputStream<GetObjectResponse> serve(GetObjectRequest request) {
+        if (request.ifMatch() != null && !request.ifMatch().equals(ETAG)) {
+            throw (S3Exception) S3Exception.builder().statusCode(412).message("PreconditionFailed").build();
+        }
+        int start = 0;
+        int end = CONTENT.length - 1;
+        String contentRange = null;
+        if (request.range() != null) {
+            Matcher m = RANGE.matcher(request.range());
+            assertThat(m.matches()).isTrue();
+            start = Integer.parseInt(m.group(1));
+            if (start >= CONTENT.length) {
+                throw (S3Exception) S3Exception.builder().statusCode(416).message("InvalidRange").build();
+            }
+            if (!m.group(2).isEmpty()) {
+                end = Math.min(end, Integer.parseInt(m.group(2)));
+            }
+            contentRange = "bytes " + start + "-" + end + "/" + CONTENT.length;
+        }
+        GetObjectResponse object = GetObjectResponse.builder()
+                .contentLength((long) (end - start + 1))
+                .contentRange(contentRange)
+                .eTag(ETAG)
+                .lastModified(LAST_MODIFIED)
+                .contentType("text/plain")
+                .build();
+        return new ResponseInputStream<>(object, AbortableInputStream.create(
+                new ByteArrayInputStream(CONTENT, start, end - start + 1), () -> aborted.set(true)));
+    }
+
+    private static String httpDate(Instant instant) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(instant.atZone(ZoneOffset.UTC));
+    }
+}
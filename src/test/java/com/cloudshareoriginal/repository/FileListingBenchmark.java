@@ -0,0 +1,132 @@
+package com.cloudshareoriginal.repository;
+
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.utils.KeysetCursor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Entity vs constructor-projection listing over 10k files, both inside a read-only transaction as
+ * the service runs them. Not part of the regular build (the name does not match the surefire
+ * includes); run it with {@code mvn test -Dtest=FileListingBenchmark}.
+ */
+@SpringBootTest
+class FileListingBenchmark {
+
+    private static final int ROWS = 10_000;
+    private static final int WARMUP = 10;
+    private static final int RUNS = 30;
+
+    @MockitoBean
+    private S3Client s3Client;
+
+    @Autowired
+    private FileItemRepository fileItemRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void entityVersusProjection() {
+        User owner = userRepository.save(User.builder()
+                .email("bench@example.com")
+                .password("x")
+                .emailVerified(true)
+                .build());
+        seed(owner.getId());
+
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        KeysetCursor first = KeysetCursor.FIRST;
+
+        for (int pageSize : new int[]{50, ROWS}) {
+            PageRequest page = PageRequest.of(0, pageSize);
+            Supplier<Integer> entities = () -> readOnly.execute(tx -> {
+                List<FileItem> rows = fileItemRepository.findPageByOwner(owner.getId(), FileItem.Status.READY, first.at(), first.id(), page);
+                // What toSummary reads
+                long sink = 0;
+                for (FileItem f : rows) {
+                    sink += f.getId() + f.getOriginalName().length() + f.getSize() + f.getVisibility().ordinal()
+                            + f.getS3Key().length() + (f.isFavorite() ? 1 : 0);
+                }
+                return rows.size() + (int) (sink & 0);
+            });
+            Supplier<Integer> projections = () -> readOnly.execute(tx -> {
+                List<FileSummaryRow> rows = fileItemRepository.findSummaryPageByOwner(owner.getId(), FileItem.Status.READY, first.at(), first.id(), page);
+                long sink = 0;
+                for (FileSummaryRow f : rows) {
+                    sink += f.id() + f.originalName().length() + f.size() + f.visibility().ordinal()
+                            + f.s3Key().length() + (f.favorite() ? 1 : 0);
+                }
+                return rows.size() + (int) (sink & 0);
+            });
+
+            Result entity = measure(entities);
+            Result projection = measure(projections);
+            assertThat(entity.rows).isEqualTo(projection.rows).isEqualTo(pageSize);
+            System.out.printf("page=%5d  entity:     median %8.2f ms  %,12d bytes/op%n", pageSize, entity.medianMs, entity.bytes);
+            System.out.printf("page=%5d  projection: median %8.2f ms  %,12d bytes/op%n", pageSize, projection.medianMs, projection.bytes);
+        }
+    }
+
+    private void seed(Long ownerId) {
+        Instant base = Instant.parse("2025-01-01T00:00:00Z");
+        List<Object[]> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Timestamp at = Timestamp.from(base.plusSeconds(i));
+            rows.add(new Object[]{ownerId, "file-" + i + ".jpg", "https://bucket.s3.amazonaws.com/uploads/" + i,
+                    "image/jpeg", 1000L + i, i % 2 == 0 ? "PUBLIC" : "PRIVATE", "READY", i % 5 == 0, at, at});
+        }
+        jdbcTemplate.batchUpdate("""
+                insert into file_items (owner_id, original_name, s3key, content_type, size, visibility, status,
+                                        favorite, created_at, updated_at, download_count, committed_bytes)
+                values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, 0)""", rows);
+    }
+
+    private static Result measure(Supplier<Integer> op) {
+        for (int i = 0; i < WARMUP; i++) {
+            op.get();
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        double[] times = new double[RUNS];
+        long allocated = 0;
+        int rows = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long bytesBefore = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            rows = op.get();
+            times[i] = (System.nanoTime() - start) / 1_000_000.0;
+            allocated += threads.getThreadAllocatedBytes(thread) - bytesBefore;
+        }
+        Arrays.sort(times);
+        return new Result(times[RUNS / 2], allocated / RUNS, rows);
+    }
+
+    private record Result(double medianMs, long bytes, int rows) {
+    }
+}
@@ -0,0 +1,117 @@
+package com.cloudshareoriginal.security;
+
+import com.cloudshareoriginal.model.User;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokens authenticated per second by the JWT filter path:
+ * <ul>
+ *     <li>{@code doubleParse} - the old path, a fresh parser and a full verification for the
+ *     validity check and again for the subject;</li>
+ *     <li>{@code singleParse} - {@link JwtService#verify} with the cache off: one shared parser,
+ *     one verification;</li>
+ *     <li>{@code cached} - {@link JwtService#verify} over a working set of {@code tokens} distinct
+ *     tokens, which all fit in the cache.</li>
+ * </ul>
+ * Not part of the regular build; run it with {@code mvn test -Dtest=JwtVerificationBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class JwtVerificationBenchmark {
+
+    private static final String SECRET = "benchmark-secret-benchmark-secret-0123456789";
+
+    @Param({"1000"})
+    public int tokens;
+
+    private String[] issued;
+    private SecretKey key;
+    private JwtService uncached;
+    private JwtService cached;
+
+    @Setup
+    public void setUp() {
+        key = Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8));
+        uncached = service(0);
+        cached = service(10_000);
+        issued = new String[tokens];
+        for (int i = 0; i < tokens; i++) {
+            issued[i] = cached.generateToken(User.builder()
+                    .id((long) i + 1)
+                    .email("user" + i + "@example.com")
+                    .role("USER")
+                    .emailVerified(true)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public Object doubleParse() {
+        String token = next();
+        Claims claims = Jwts.parser().verifyWith(key).build().parseSignedClaims(token).getPayload();
+        if (claims.getExpiration() == null || !claims.getExpiration().after(new Date())) {
+            return null;
+        }
+        return Jwts.parser().verifyWith(key).build().parseSignedClaims(token).getPayload().getSubject();
+    }
+
+    @Benchmark
+    public Object singleParse() {
+        return JwtService.principalOf(uncached.verify(next()));
+    }
+
+    @Benchmark
+    public Object cached() {
+        return JwtService.principalOf(cached.verify(next()));
+    }
+
+    private String next() {
+        return issued[ThreadLocalRandom.current().nextInt(issued.length)];
+    }
+
+    private static JwtService service(int cacheSize) {
+        JwtService service = new JwtService();
+        ReflectionTestUtils.setField(service, "jwtSecret", SECRET);
+        ReflectionTestUtils.setField(service, "jwtExpirationMs", 3_600_000L);
+        ReflectionTestUtils.setField(service, "verifiedCacheSize", cacheSize);
+        service.init();
+        return service;
+    }
+
+    @Test
+    void run() throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JwtVerificationBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,197 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.model.AccountDeletion;
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.model.FileShare;
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.repository.AccountDeletionRepository;
+import com.cloudshareoriginal.repository.FileItemRepository;
+import com.cloudshareoriginal.repository.FileShareRepository;
+import com.cloudshareoriginal.repository.UserQuotaRepository;
+import com.cloudshareoriginal.repository.UserRepository;
+import com.cloudshareoriginal.security.AccountStatus;
+import com.cloudshareoriginal.security.AuthenticatedUser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Account deletion disables the account at once, then removes files in chunks and the account
+ * last. A job whose worker stopped part way is resumed from its checkpoint once the lease runs
+ * out, and a job under a live lease is left alone.
+ */
+@SpringBootTest(properties = {
+        "app.account-deletion.chunk-size=" + AccountDeletionServiceTest.CHUNK,
+        "app.account-deletion.resume-initial-delay-ms=3600000"
+})
+class AccountDeletionServiceTest {
+
+    static final int CHUNK = 100;
+    private static final int FILES = 250;
+
+    @MockitoBean
+    private S3Client s3Client;
+
+    @Autowired
+    private AccountDeletionService accountDeletionService;
+
+    @Autowired
+    private AccountDeletionRepository accountDeletionRepository;
+
+    @Autowired
+    private AccountStatus accountStatus;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FileItemRepository fileItemRepository;
+
+    @Autowired
+    private FileShareRepository fileShareRepository;
+
+    @Autowired
+    private UserQuotaRepository userQuotaRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private User user;
+    private User friend;
+    private Long friendFileId;
+
+    @BeforeEach
+    void seed() {
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+        user = userRepository.save(User.builder().email("leaving@example.com").password("x").emailVerified(true)
+                .profileImageUrl("https://bucket.s3.amazonaws.com/profiles/leaving.jpg").build());
+        friend = userRepository.save(User.builder().email("staying@example.com").password("x").emailVerified(true).build());
+
+        List<FileItem> files = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            files.add(FileItem.builder().owner(user).originalName("f" + i + ".txt")
+                    .s3Key("https://bucket.s3.amazonaws.com/leaving/" + i).size(10L).status(FileItem.Status.READY).build());
+        }
+        List<FileItem> saved = fileItemRepository.saveAll(files);
+        FileItem friendFile = fileItemRepository.save(FileItem.builder().owner(friend).originalName("theirs.txt")
+                .s3Key("https://bucket.s3.amazonaws.com/theirs").size(10L).status(FileItem.Status.READY).build());
+        friendFileId = friendFile.getId();
+
+        // Shares both ways: the user's file with the friend, and the friend's file with the user
+        fileShareRepository.save(FileShare.builder().file(saved.get(0)).owner(user).sharedTo(friend).build());
+        fileShareRepository.save(FileShare.builder().file(friendFile).owner(friend).sharedTo(user).build());
+
+        jdbcTemplate.update("""
+                insert into user_quota (user_id, limit_files, used_files, reserved_files, limit_bytes, used_bytes,
+                                        reserved_bytes, subscription_status)
+                values (?, 1000, ?, 0, 1000000, ?, 0, 'inactive')""", user.getId(), FILES, FILES * 10L);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        SecurityContextHolder.clearContext();
+        fileShareRepository.deleteAll();
+        fileItemRepository.deleteAll(fileItemRepository.findAll().stream()
+                .filter(f -> f.getOwner().getId().equals(user.getId()) || f.getOwner().getId().equals(friend.getId()))
+                .toList());
+        userQuotaRepository.findByUserId(user.getId()).ifPresent(userQuotaRepository::delete);
+        userRepository.findById(user.getId()).ifPresent(userRepository::delete);
+        userRepository.delete(friend);
+        accountDeletionRepository.deleteAll();
+    }
+
+    @Test
+    void disablesAtOnceAndDeletesInTheBackground() throws InterruptedException {
+        assertThat(accountStatus.isActive(user.getId())).isTrue();
+        signInAs(user);
+
+        AccountDeletion job = accountDeletionService.request();
+        SecurityContextHolder.clearContext();
+
+        assertThat(accountStatus.isActive(user.getId())).isFalse();
+        assertThat(job.getFilesTotal()).isEqualTo(FILES);
+
+        AccountDeletion done = awaitDone(job.getToken());
+        assertThat(done.getFilesDeleted()).isEqualTo(FILES);
+        assertThat(done.getCompletedAt()).isNotNull();
+        assertThat(userRepository.findById(user.getId())).isEmpty();
+        assertThat(fileItemRepository.countByOwnerId(user.getId())).isZero();
+        assertThat(userQuotaRepository.findByUserId(user.getId())).isEmpty();
+        assertThat(fileShareRepository.count()).isZero();
+        assertThat(fileItemRepository.findById(friendFileId)).isPresent();
+        // Three chunks of files, then the profile photo
+        verify(s3Client, atLeast(4)).deleteObjects(any(DeleteObjectsRequest.class));
+    }
+
+    @Test
+    void resumesFromTheCheckpointOnceTheLeaseRunsOut() {
+        jdbcTemplate.update("update users set enabled = false where id = ?", user.getId());
+        // A worker that stopped after one chunk: its lease has run out
+        AccountDeletion job = accountDeletionRepository.save(AccountDeletion.builder()
+                .userId(user.getId()).token("resume-token").filesTotal((long) FILES).filesDeleted(100L)
+                .status(AccountDeletion.Status.RUNNING).leaseOwner("gone").leaseUntil(Instant.now().minusSeconds(1))
+                .build());
+        jdbcTemplate.update("delete from file_shares where file_id in (select id from file_items where owner_id = ?)", user.getId());
+        jdbcTemplate.update("delete from file_items where owner_id = ? and id in (select id from file_items where owner_id = ? order by id limit 100)",
+                user.getId(), user.getId());
+
+        accountDeletionService.run(job.getId());
+
+        AccountDeletion done = accountDeletionRepository.findById(job.getId()).orElseThrow();
+        assertThat(done.getStatus()).isEqualTo(AccountDeletion.Status.DONE);
+        assertThat(done.getFilesDeleted()).isEqualTo(FILES);
+        assertThat(done.getAttempts()).isEqualTo(1);
+        assertThat(userRepository.findById(user.getId())).isEmpty();
+    }
+
+    @Test
+    void leavesAJobWithALiveLeaseAlone() {
+        AccountDeletion job = accountDeletionRepository.save(AccountDeletion.builder()
+                .userId(user.getId()).token("busy-token").status(AccountDeletion.Status.RUNNING)
+                .leaseOwner("other").leaseUntil(Instant.now().plusSeconds(60)).build());
+
+        accountDeletionService.run(job.getId());
+
+        assertThat(accountDeletionRepository.findById(job.getId()).orElseThrow().getFilesDeleted()).isZero();
+        assertThat(fileItemRepository.countByOwnerId(user.getId())).isEqualTo(FILES);
+        assertThat(userRepository.findById(user.getId())).isPresent();
+    }
+
+    private AccountDeletion awaitDone(String token) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            AccountDeletion job = accountDeletionService.findByToken(token).orElseThrow();
+            if (job.getStatus() == AccountDeletion.Status.DONE) {
+                return job;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("Account deletion did not finish");
+    }
+
+    // The principal the JWT filter builds
+    private static void signInAs(User user) {
+        AuthenticatedUser principal = AuthenticatedUser.of(user);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.authorities()));
+    }
+}
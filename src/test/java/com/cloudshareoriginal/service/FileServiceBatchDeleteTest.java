@@ -0,0 +1,227 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.dto.files.BatchDeleteResponse;
+import com.cloudshareoriginal.model.Blob;
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.model.FileShare;
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.model.UserQuota;
+import com.cloudshareoriginal.repository.BlobRepository;
+import com.cloudshareoriginal.repository.FileItemRepository;
+import com.cloudshareoriginal.repository.FileShareRepository;
+import com.cloudshareoriginal.repository.UserQuotaRepository;
+import com.cloudshareoriginal.repository.UserRepository;
+import com.cloudshareoriginal.security.AuthenticatedUser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * A batch delete moves the caller's files to the trash and gives back their quota in one go,
+ * leaving files it does not own untouched. The purger then removes them with their shares, frees
+ * storage with DeleteObjects in chunks of at most 1000 keys, and keeps objects other files still
+ * reference. A trashed file can be restored until then.
+ */
+@SpringBootTest(properties = "app.trash.retention-days=0")
+class FileServiceBatchDeleteTest {
+
+    private static final int FILES = 2500;
+    private static final long SIZE = 100;
+
+    @MockitoBean
+    private S3Client s3Client;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private TrashPurger trashPurger;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FileItemRepository fileItemRepository;
+
+    @Autowired
+    private FileShareRepository fileShareRepository;
+
+    @Autowired
+    private BlobRepository blobRepository;
+
+    @Autowired
+    private UserQuotaRepository userQuotaRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private User owner;
+    private User other;
+    private Blob shared;
+    private final List<Long> ids = new ArrayList<>();
+    private Long keptId;
+    private Long otherId;
+
+    @BeforeEach
+    void seed() {
+        owner = userRepository.save(User.builder().email("batch-delete@example.com").password("x").emailVerified(true).build());
+        other = userRepository.save(User.builder().email("batch-delete-other@example.com").password("x").emailVerified(true).build());
+
+        List<FileItem> files = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            files.add(FileItem.builder()
+                    .owner(owner)
+                    .originalName("f" + i + ".txt")
+                    .s3Key("https://bucket.s3.amazonaws.com/batch/" + i)
+                    .size(SIZE)
+                    .status(FileItem.Status.READY)
+                    .build());
+        }
+        fileItemRepository.saveAll(files).forEach(f -> ids.add(f.getId()));
+
+        // Two files on one blob: deleting only one of them must keep the object
+        shared = blobRepository.save(Blob.builder().s3Key("blobs/shared").size(SIZE).refCount(2L).build());
+        ids.add(fileItemRepository.save(FileItem.builder().owner(owner).originalName("dup-a.txt")
+                .s3Key("blobs/shared").blob(shared).size(SIZE).status(FileItem.Status.READY).build()).getId());
+        keptId = fileItemRepository.save(FileItem.builder().owner(owner).originalName("dup-b.txt")
+                .s3Key("blobs/shared").blob(shared).size(SIZE).status(FileItem.Status.READY).build()).getId();
+
+        FileItem foreign = fileItemRepository.save(FileItem.builder().owner(other).originalName("theirs.txt")
+                .s3Key("https://bucket.s3.amazonaws.com/theirs").size(SIZE).status(FileItem.Status.READY).build());
+        otherId = foreign.getId();
+
+        fileShareRepository.save(FileShare.builder().file(fileItemRepository.getReferenceById(ids.get(0)))
+                .owner(owner).sharedTo(other).build());
+
+        jdbcTemplate.update("""
+                insert into user_quota (user_id, limit_files, used_files, reserved_files, limit_bytes, used_bytes,
+                                        reserved_bytes, subscription_status)
+                values (?, 10000, ?, 0, 1000000000, ?, 0, 'inactive')""",
+                owner.getId(), FILES + 2, (FILES + 2) * SIZE);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        SecurityContextHolder.clearContext();
+        fileShareRepository.deleteAll();
+        fileItemRepository.deleteAll(fileItemRepository.findAll().stream()
+                .filter(f -> f.getOwner().getId().equals(owner.getId()) || f.getOwner().getId().equals(other.getId()))
+                .toList());
+        blobRepository.findById(shared.getId()).ifPresent(blobRepository::delete);
+        userQuotaRepository.findByUserId(owner.getId()).ifPresent(userQuotaRepository::delete);
+        userRepository.delete(owner);
+        userRepository.delete(other);
+    }
+
+    @Test
+    void trashesOwnedFilesAndPurgesThemWithChunkedObjectDeletes() {
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+        signInAs(owner);
+
+        List<Long> request = new ArrayList<>(ids);
+        request.add(otherId);
+        request.add(-1L);
+        request.add(ids.get(0)); // duplicates count once
+        BatchDeleteResponse result = fileService.deleteBatch(request);
+
+        assertThat(result.getDeleted()).isEqualTo(FILES + 1);
+        assertThat(result.getDeletedIds()).containsExactlyInAnyOrderElementsOf(ids);
+        assertThat(result.getNotFound()).containsExactlyInAnyOrder(otherId, -1L);
+
+        // Trashed, not gone: out of the listings and the quota, and no storage touched yet
+        assertThat(fileItemRepository.findAllById(ids)).hasSize(FILES + 1)
+                .allSatisfy(f -> assertThat(f.getStatus()).isEqualTo(FileItem.Status.DELETED));
+        assertThat(fileService.list(null, null, 10).getItems()).extracting(r -> r.id()).containsExactly(keptId);
+        assertThat(fileService.listTrash(null, 10).getItems()).hasSize(10);
+        UserQuota q = userQuotaRepository.findByUserId(owner.getId()).orElseThrow();
+        assertThat(q.getUsedFiles()).isEqualTo(1);
+        assertThat(q.getUsedBytes()).isEqualTo(SIZE);
+        verify(s3Client, never()).deleteObjects(any(DeleteObjectsRequest.class));
+
+        assertThat(trashPurger.purge()).isEqualTo(FILES + 1);
+
+        assertThat(fileItemRepository.findAllById(ids)).isEmpty();
+        assertThat(fileItemRepository.findById(otherId)).isPresent();
+        assertThat(fileItemRepository.findById(keptId)).isPresent();
+        assertThat(fileShareRepository.count()).isZero();
+        assertThat(blobRepository.findById(shared.getId())).hasValueSatisfying(b -> assertThat(b.getRefCount()).isEqualTo(1L));
+        assertThat(userQuotaRepository.findByUserId(owner.getId()).orElseThrow().getUsedFiles()).isEqualTo(1);
+
+        // 2500 legacy objects in batches of 1000: three requests, none over the S3 maximum, the shared blob kept
+        ArgumentCaptor<DeleteObjectsRequest> sent = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client, atLeastOnce()).deleteObjects(sent.capture());
+        assertThat(sent.getAllValues()).hasSize(3)
+                .allSatisfy(r -> assertThat(r.delete().objects()).hasSizeLessThanOrEqualTo(1000));
+        Set<String> keys = sent.getAllValues().stream()
+                .flatMap(r -> r.delete().objects().stream())
+                .map(ObjectIdentifier::key)
+                .collect(Collectors.toSet());
+        assertThat(keys).hasSize(FILES).contains("batch/0", "batch/" + (FILES - 1)).doesNotContain("blobs/shared", "theirs");
+    }
+
+    @Test
+    void restoreTakesTheFileBackAndItsQuota() {
+        signInAs(owner);
+        Long id = ids.get(0);
+
+        fileService.delete(id);
+        assertThat(fileService.listTrash(null, 10).getItems()).extracting(r -> r.id()).containsExactly(id);
+        assertThat(userQuotaRepository.findByUserId(owner.getId()).orElseThrow().getUsedFiles()).isEqualTo(FILES + 1);
+
+        fileService.restore(id);
+        assertThat(fileItemRepository.findById(id)).hasValueSatisfying(f -> {
+            assertThat(f.getStatus()).isEqualTo(FileItem.Status.READY);
+            assertThat(f.getDeletedAt()).isNull();
+        });
+        assertThat(fileService.listTrash(null, 10).getItems()).isEmpty();
+        UserQuota q = userQuotaRepository.findByUserId(owner.getId()).orElseThrow();
+        assertThat(q.getUsedFiles()).isEqualTo(FILES + 2);
+        assertThat(q.getUsedBytes()).isEqualTo((FILES + 2) * SIZE);
+
+        // The share survived the round trip, and the purger has nothing to do
+        assertThat(fileShareRepository.count()).isEqualTo(1);
+        assertThat(trashPurger.purge()).isZero();
+    }
+
+    @Test
+    void nothingOwnedDeletesNothing() {
+        signInAs(owner);
+
+        BatchDeleteResponse result = fileService.deleteBatch(List.of(otherId));
+
+        assertThat(result.getDeleted()).isZero();
+        assertThat(result.getNotFound()).containsExactly(otherId);
+        assertThat(fileItemRepository.findById(otherId)).isPresent();
+        verify(s3Client, never()).deleteObjects(any(DeleteObjectsRequest.class));
+    }
+
+    // The principal the JWT filter builds
+    private static void signInAs(User user) {
+        AuthenticatedUser principal = AuthenticatedUser.of(user);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.authorities()));
+    }
+}
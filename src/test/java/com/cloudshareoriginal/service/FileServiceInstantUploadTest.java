@@ -0,0 +1,130 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.dto.files.InstantUploadRequest;
+import com.cloudshareoriginal.model.Blob;
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.model.UserQuota;
+import com.cloudshareoriginal.repository.BlobRepository;
+import com.cloudshareoriginal.repository.FileItemRepository;
+import com.cloudshareoriginal.repository.UserQuotaRepository;
+import com.cloudshareoriginal.repository.UserRepository;
+import com.cloudshareoriginal.security.AuthenticatedUser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Instant upload only reuses content the caller already stores; a hash of someone else's file
+ * gets nothing. Concurrent first uploads of the same content end up on a single blob.
+ */
+@SpringBootTest
+class FileServiceInstantUploadTest {
+
+    private static final String SHA256 = "ab".repeat(32);
+    private static final long SIZE = 100;
+
+    @MockitoBean
+    private S3Client s3Client;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private BlobService blobService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FileItemRepository fileItemRepository;
+
+    @Autowired
+    private BlobRepository blobRepository;
+
+    @Autowired
+    private UserQuotaRepository userQuotaRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private User holder;
+    private User stranger;
+
+    @BeforeEach
+    void seed() {
+        holder = userRepository.save(User.builder().email("instant-holder@example.com").password("x").emailVerified(true).build());
+        stranger = userRepository.save(User.builder().email("instant-stranger@example.com").password("x").emailVerified(true).build());
+        for (User user : new User[]{holder, stranger}) {
+            jdbcTemplate.update("""
+                    insert into user_quota (user_id, limit_files, used_files, reserved_files, limit_bytes, used_bytes,
+                                            reserved_bytes, subscription_status)
+                    values (?, 5, 0, 0, 1000000, 0, 0, 'inactive')""", user.getId());
+        }
+    }
+
+    @AfterEach
+    void cleanUp() {
+        SecurityContextHolder.clearContext();
+        fileItemRepository.deleteAll(fileItemRepository.findAll().stream()
+                .filter(f -> f.getOwner().getId().equals(holder.getId()) || f.getOwner().getId().equals(stranger.getId()))
+                .toList());
+        blobRepository.findFirstBySha256AndSizeOrderByIdAsc(SHA256, SIZE).ifPresent(blobRepository::delete);
+        for (User user : new User[]{holder, stranger}) {
+            userQuotaRepository.findByUserId(user.getId()).ifPresent(userQuotaRepository::delete);
+            userRepository.delete(user);
+        }
+    }
+
+    @Test
+    void onlyTheCallersOwnContentIsReused() {
+        Blob blob = blobRepository.save(Blob.builder().sha256(SHA256).s3Key("blobs/private").size(SIZE).build());
+        fileItemRepository.save(FileItem.builder().owner(holder).originalName("secret.pdf")
+                .s3Key("blobs/private").blob(blob).size(SIZE).status(FileItem.Status.READY).build());
+        InstantUploadRequest request = new InstantUploadRequest(SHA256, "copy.pdf", null, SIZE);
+
+        signInAs(stranger);
+        assertThat(fileService.instantUpload(request)).isEmpty();
+        UserQuota q = userQuotaRepository.findByUserId(stranger.getId()).orElseThrow();
+        assertThat(q.getReservedFiles()).isZero();
+        assertThat(q.getUsedFiles()).isZero();
+
+        signInAs(holder);
+        Optional<FileItem> copy = fileService.instantUpload(request);
+        assertThat(copy).hasValueSatisfying(f -> assertThat(f.getBlob().getId()).isEqualTo(blob.getId()));
+        assertThat(blobRepository.findById(blob.getId()).orElseThrow().getRefCount()).isEqualTo(2L);
+    }
+
+    @Test
+    void sameContentStoredTwiceSharesOneBlob() {
+        // The first store goes through the insert-if-absent path; the second finds its row
+        Blob first = blobService.store(new S3Service.StoredObject("uploads/first", SHA256, SIZE), "text/plain");
+        Blob second = blobService.store(new S3Service.StoredObject("uploads/second", SHA256, SIZE), "text/plain");
+
+        assertThat(second.getId()).isEqualTo(first.getId());
+        assertThat(blobRepository.findById(first.getId()).orElseThrow().getRefCount()).isEqualTo(2L);
+        ArgumentCaptor<DeleteObjectRequest> deleted = ArgumentCaptor.forClass(DeleteObjectRequest.class);
+        verify(s3Client).deleteObject(deleted.capture());
+        assertThat(deleted.getValue().key()).isEqualTo("uploads/second");
+    }
+
+    private static void signInAs(User user) {
+        AuthenticatedUser principal = AuthenticatedUser.of(user);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.authorities()));
+    }
+}
@@ -0,0 +1,196 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.dto.files.ArchiveRequest;
+import com.cloudshareoriginal.dto.files.BatchShareResponse;
+import com.cloudshareoriginal.dto.files.CursorPage;
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.model.FileShare;
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.repository.FileItemRepository;
+import com.cloudshareoriginal.repository.FileShareRepository;
+import com.cloudshareoriginal.repository.UserRepository;
+import com.cloudshareoriginal.security.AuthenticatedUser;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The share listings must load file, owner and recipient with the shares themselves: the number
+ * of statements may not grow with the page size. Reading the associations after the service
+ * returns, as the controller does, also proves nothing is left lazy. A batch share likewise looks
+ * up files, recipients and existing pairs once each, however many pairs it writes.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class FileServiceShareQueryCountTest {
+
+    private static final int OWNERS = 20;
+    private static final int FILES_PER_OWNER = 10;
+
+    @MockitoBean
+    private S3Client s3Client;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FileItemRepository fileItemRepository;
+
+    @Autowired
+    private FileShareRepository fileShareRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private User recipient;
+    private final List<User> owners = new ArrayList<>();
+    private final List<Long> fileIds = new ArrayList<>();
+
+    @BeforeEach
+    void seed() {
+        recipient = userRepository.save(User.builder().email("share-count-to@example.com").password("x").emailVerified(true).build());
+        for (int o = 0; o < OWNERS; o++) {
+            User owner = userRepository.save(User.builder().email("share-count-" + o + "@example.com").password("x").emailVerified(true).build());
+            owners.add(owner);
+            for (int f = 0; f < FILES_PER_OWNER; f++) {
+                FileItem file = fileItemRepository.save(FileItem.builder()
+                        .owner(owner)
+                        .originalName("f" + o + "-" + f + ".txt")
+                        .s3Key("https://bucket.s3.amazonaws.com/k" + o + "-" + f)
+                        .status(FileItem.Status.READY)
+                        .build());
+                fileIds.add(file.getId());
+                fileShareRepository.save(FileShare.builder().file(file).owner(owner).sharedTo(recipient).build());
+            }
+        }
+    }
+
+    @AfterEach
+    void cleanUp() {
+        SecurityContextHolder.clearContext();
+        List<User> seeded = new ArrayList<>(owners);
+        seeded.add(recipient);
+        for (User user : seeded) {
+            jdbcTemplate.update("delete from file_shares where owner_id = ? or shared_to_id = ?", user.getId(), user.getId());
+            jdbcTemplate.update("delete from file_items where owner_id = ?", user.getId());
+        }
+        userRepository.deleteAll(seeded);
+    }
+
+    @Test
+    void sharedWithMeIsConstantInPageSize() {
+        signInAs(recipient);
+        long small = statementsFor(() -> touch(fileService.listSharedWithMe(null, 5)));
+        long large = statementsFor(() -> touch(fileService.listSharedWithMe(null, OWNERS * FILES_PER_OWNER)));
+
+        assertThat(large).isEqualTo(small);
+        assertThat(large).isEqualTo(1); // the caller comes from the token, so just the page
+    }
+
+    @Test
+    void sharedByMeIsConstantInPageSize() {
+        signInAs(owners.get(0));
+        long small = statementsFor(() -> touch(fileService.listSharedByMe(null, 1)));
+        long large = statementsFor(() -> touch(fileService.listSharedByMe(null, FILES_PER_OWNER)));
+
+        assertThat(large).isEqualTo(small);
+        assertThat(large).isEqualTo(1);
+    }
+
+    @Test
+    void archiveAccessCheckIsConstantInFileCount() {
+        signInAs(recipient);
+        long small = statementsFor(() -> fileService.listForArchive(ArchiveRequest.builder().ids(fileIds.subList(0, 2)).build()));
+        long large = statementsFor(() -> fileService.listForArchive(ArchiveRequest.builder().ids(fileIds).build()));
+
+        assertThat(large).isEqualTo(small);
+    }
+
+    @Test
+    void batchShareIsConstantInPairCount() {
+        User owner = owners.get(0);
+        List<Long> ownFiles = fileIds.subList(0, FILES_PER_OWNER);
+        signInAs(owner);
+
+        long small = statementsFor(() -> fileService.shareBatch(ownFiles.subList(0, 1), List.of(owners.get(1).getEmail())));
+
+        List<String> emails = new ArrayList<>();
+        for (User o : owners) {
+            emails.add(o.getEmail()); // includes the owner, who is skipped
+        }
+        emails.add(recipient.getEmail()); // already has all of them
+        emails.add(owners.get(1).getEmail().toUpperCase()); // the same recipient again
+        emails.add("nobody@example.com");
+        List<Long> ids = new ArrayList<>(ownFiles);
+        ids.add(fileIds.get(FILES_PER_OWNER)); // someone else's
+        Long uploading = fileItemRepository.save(FileItem.builder().owner(owner).originalName("partial.bin")
+                .s3Key("https://bucket.s3.amazonaws.com/partial").status(FileItem.Status.UPLOADING).build()).getId();
+        ids.add(uploading); // nothing in storage yet
+        BatchShareResponse[] result = new BatchShareResponse[1];
+        long large = statementsFor(() -> result[0] = fileService.shareBatch(ids, emails));
+
+        assertThat(large).isEqualTo(small);
+        assertThat(large).isEqualTo(3); // files, recipients, existing pairs; the inserts go through JDBC
+        assertThat(result[0].getShared()).isEqualTo(FILES_PER_OWNER * (OWNERS - 1) - 1);
+        assertThat(result[0].getAlreadyShared()).isEqualTo(FILES_PER_OWNER + 1);
+        assertThat(result[0].getNotFound()).containsExactlyInAnyOrder(fileIds.get(FILES_PER_OWNER), uploading);
+        assertThat(result[0].getUnknownEmails()).containsExactly("nobody@example.com");
+        Long shares = jdbcTemplate.queryForObject("select count(*) from file_shares where shared_to_id = ? or owner_id = ?",
+                Long.class, recipient.getId(), owner.getId());
+        assertThat(shares).isEqualTo((long) OWNERS * FILES_PER_OWNER + FILES_PER_OWNER * (OWNERS - 1));
+
+        // The new rows read back like ones Hibernate wrote, sharedOn included
+        signInAs(owners.get(OWNERS - 1));
+        CursorPage<FileShare> page = fileService.listSharedWithMe(null, FILES_PER_OWNER * 2);
+        touch(page);
+        assertThat(page.getItems()).filteredOn(sh -> sh.getOwner().getId().equals(owner.getId())).hasSize(FILES_PER_OWNER)
+                .allSatisfy(sh -> assertThat(Duration.between(sh.getSharedOn(), Instant.now()).abs()).isLessThan(Duration.ofMinutes(1)));
+    }
+
+    private long statementsFor(Runnable action) {
+        Statistics stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        stats.clear();
+        action.run();
+        return stats.getPrepareStatementCount();
+    }
+
+    // What FileController.toShared reads, after the transaction has closed
+    private static void touch(CursorPage<FileShare> page) {
+        assertThat(page.getItems()).isNotEmpty();
+        for (FileShare share : page.getItems()) {
+            assertThat(share.getFile().getOriginalName()).isNotNull();
+            assertThat(share.getFile().getVisibility()).isNotNull();
+            assertThat(share.getOwner().getEmail()).isNotNull();
+            assertThat(share.getSharedTo().getEmail()).isNotNull();
+        }
+    }
+
+    // The principal the JWT filter builds
+    private static void signInAs(User user) {
+        AuthenticatedUser principal = AuthenticatedUser.of(user);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.authorities()));
+    }
+}
@@ -0,0 +1,146 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.repository.BlobRepository;
+import com.cloudshareoriginal.repository.FileItemRepository;
+import com.cloudshareoriginal.repository.UserQuotaRepository;
+import com.cloudshareoriginal.repository.UserRepository;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Load test for the upload path: with a two-connection pool and eight uploads stuck in a slow S3
+ * transfer, other work must still get a connection immediately.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.hikari.maximum-pool-size=2",
+        "spring.datasource.hikari.connection-timeout=5000",
+        "app.free.file-limit=100"
+})
+class FileServiceUploadLoadTest {
+
+    private static final int UPLOADERS = 8;
+    private static final long S3_LATENCY_MS = 1000;
+
+    @MockitoBean
+    private S3Client s3Client;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private QuotaService quotaService;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private FileItemRepository fileItemRepository;
+
+    @Autowired
+    private BlobRepository blobRepository;
+
+    @Autowired
+    private UserQuotaRepository userQuotaRepository;
+
+    private final ExecutorService uploaders = Executors.newFixedThreadPool(UPLOADERS);
+
+    private User user;
+
+    @BeforeEach
+    void seed() {
+        user = userRepository.save(User.builder()
+                .email("load-test@example.com")
+                .password("x")
+                .emailVerified(true)
+                .build());
+        quotaService.getOrCreate(user);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        uploaders.shutdownNow();
+        uploaders.awaitTermination(10, TimeUnit.SECONDS);
+        List<FileItem> files = fileItemRepository.findAll().stream()
+                .filter(f -> f.getOwner().getId().equals(user.getId()))
+                .toList();
+        List<Long> blobIds = files.stream().filter(f -> f.getBlob() != null).map(f -> f.getBlob().getId()).toList();
+        fileItemRepository.deleteAll(files);
+        blobRepository.deleteAllById(blobIds);
+        userQuotaRepository.findByUserId(user.getId()).ifPresent(userQuotaRepository::delete);
+        userRepository.delete(user);
+    }
+
+    @Test
+    void slowUploadsDoNotHoldPooledConnections() throws Exception {
+
+        CountDownLatch inTransfer = new CountDownLatch(UPLOADERS);
+        when(s3Client.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(inv -> {
+            inTransfer.countDown();
+            Thread.sleep(S3_LATENCY_MS);
+            return PutObjectResponse.builder().build();
+        });
+
+        List<Future<FileItem>> results = new ArrayList<>();
+        for (int i = 0; i < UPLOADERS; i++) {
+            byte[] content = ("file " + i).getBytes(StandardCharsets.UTF_8);
+            MockMultipartFile file = new MockMultipartFile("file", "f" + i + ".txt", "text/plain", content);
+            results.add(uploaders.submit(() -> {
+                SecurityContextHolder.getContext().setAuthentication(
+                        new UsernamePasswordAuthenticationToken(user.getEmail(), null, List.of()));
+                try {
+                    return fileService.uploadFile(file);
+                } finally {
+                    SecurityContextHolder.clearContext();
+                }
+            }));
+        }
+        assertThat(inTransfer.await(10, TimeUnit.SECONDS)).isTrue();
+
+        // Every upload is now inside the S3 call; the pool must be free for everyone else
+        long start = System.nanoTime();
+        try (Connection c = dataSource.getConnection()) {
+            assertThat(c.isValid(1)).isTrue();
+        }
+        long waitMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int awaiting = ((HikariDataSource) dataSource).getHikariPoolMXBean().getThreadsAwaitingConnection();
+
+        assertThat(waitMs).isLessThan(S3_LATENCY_MS / 4);
+        assertThat(awaiting).isZero();
+
+        for (Future<FileItem> f : results) {
+            assertThat(f.get(10, TimeUnit.SECONDS).getStatus()).isEqualTo(FileItem.Status.READY);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.repository.UserQuotaRepository;
+import com.cloudshareoriginal.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Quota rows from before byte limits existed get the limit of their plan, after which their
+ * owners can reserve again. Rows that already have a limit keep it.
+ */
+@SpringBootTest(properties = {
+        "app.free.byte-limit=1000",
+        "app.subscription.byte-limit=50000"
+})
+class QuotaBackfillTest {
+
+    @MockitoBean
+    private S3Client s3Client;
+
+    @Autowired
+    private QuotaService quotaService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserQuotaRepository userQuotaRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final List<User> users = new ArrayList<>();
+
+    @AfterEach
+    void cleanUp() {
+        for (User user : users) {
+            jdbcTemplate.update("delete from user_quota where user_id = ?", user.getId());
+            userRepository.delete(user);
+        }
+    }
+
+    @Test
+    void legacyRowsGetTheirPlansByteLimit() {
+        User free = legacy("backfill-free@example.com", "inactive", null, 0);
+        User over = legacy("backfill-over@example.com", "inactive", null, 4000);
+        User paid = legacy("backfill-paid@example.com", "active", null, 0);
+        User set = legacy("backfill-set@example.com", "inactive", 7L, 0);
+
+        assertThat(quotaService.reserve(free, 1, 10)).isFalse();
+
+        quotaService.backfillLegacyRows();
+
+        assertThat(limitOf(free)).isEqualTo(1000L);
+        assertThat(limitOf(over)).isEqualTo(4000L);
+        assertThat(limitOf(paid)).isEqualTo(50000L);
+        assertThat(limitOf(set)).isEqualTo(7L);
+        assertThat(quotaService.reserve(free, 1, 10)).isTrue();
+    }
+
+    private User legacy(String email, String status, Long limitBytes, long usedBytes) {
+        User user = userRepository.save(User.builder().email(email).password("x").emailVerified(true).build());
+        users.add(user);
+        jdbcTemplate.update("""
+                insert into user_quota (user_id, limit_files, used_files, reserved_files, limit_bytes, used_bytes,
+                                        reserved_bytes, subscription_status)
+                values (?, 5, 0, 0, ?, ?, 0, ?)""", user.getId(), limitBytes, usedBytes, status);
+        return user;
+    }
+
+    private Long limitOf(User user) {
+        return userQuotaRepository.findByUserId(user.getId()).orElseThrow().getLimitBytes();
+    }
+}
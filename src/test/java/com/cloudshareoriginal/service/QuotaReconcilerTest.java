@@ -0,0 +1,120 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.model.UserQuota;
+import com.cloudshareoriginal.repository.UserQuotaRepository;
+import com.cloudshareoriginal.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drifted quota rows are rebuilt from the file_items aggregate, correct ones are left alone, and
+ * the drift shows up in the metrics. One owner id per range, so the ranges are exercised too.
+ */
+@SpringBootTest(properties = "app.quota.reconcile-range=1")
+class QuotaReconcilerTest {
+
+    @MockitoBean
+    private S3Client s3Client;
+
+    @Autowired
+    private QuotaReconciler reconciler;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserQuotaRepository userQuotaRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final List<User> users = new ArrayList<>();
+
+    @AfterEach
+    void cleanUp() {
+        for (User user : users) {
+            jdbcTemplate.update("delete from file_items where owner_id = ?", user.getId());
+            jdbcTemplate.update("delete from user_quota where user_id = ?", user.getId());
+            userRepository.delete(user);
+        }
+    }
+
+    @Test
+    void rebuildsDriftedRowsFromTheAggregate() {
+        // Lost a file and some bytes, and kept a reservation for an upload that is gone
+        User drifted = user("drifted@example.com", 1, 50, 2, 0);
+        file(drifted, "READY", 100);
+        file(drifted, "READY", 200);
+        file(drifted, "READY", 300);
+        file(drifted, "UPLOADING", 400);
+        // Nothing uploading, yet bytes are still reserved
+        User leaked = user("leaked@example.com", 1, 10, 0, 5000);
+        file(leaked, "READY", 10);
+        // In line; reserved bytes are not checked while an upload is running
+        User fine = user("fine@example.com", 2, 30, 1, 4096);
+        file(fine, "READY", 10);
+        file(fine, "READY", 20);
+        file(fine, "UPLOADING", null);
+
+        QuotaReconciler.Result result = reconciler.reconcile();
+
+        assertThat(result.drifted()).isEqualTo(2);
+        assertThat(result.corrected()).isEqualTo(2);
+        assertThat(result.fileDrift()).isEqualTo(2 + 1);
+        assertThat(result.byteDrift()).isEqualTo(550 + 5000);
+        assertQuota(drifted, 3, 600, 1, 0);
+        assertQuota(leaked, 1, 10, 0, 0);
+        assertQuota(fine, 2, 30, 1, 4096);
+        assertThat(meterRegistry.get("cloudshare.quota.drift.rows").gauge().value()).isEqualTo(2);
+        assertThat(meterRegistry.get("cloudshare.quota.drift.bytes").gauge().value()).isEqualTo(5550);
+
+        QuotaReconciler.Result again = reconciler.reconcile();
+        assertThat(again.drifted()).isZero();
+        assertThat(meterRegistry.get("cloudshare.quota.drift.rows").gauge().value()).isZero();
+    }
+
+    private User user(String email, int usedFiles, long usedBytes, int reservedFiles, long reservedBytes) {
+        User user = userRepository.save(User.builder().email(email).password("x").emailVerified(true).build());
+        users.add(user);
+        jdbcTemplate.update("""
+                insert into user_quota (user_id, limit_files, used_files, reserved_files, limit_bytes, used_bytes,
+                                        reserved_bytes, subscription_status)
+                values (?, 100, ?, ?, 1000000, ?, ?, 'inactive')""",
+                user.getId(), usedFiles, reservedFiles, usedBytes, reservedBytes);
+        return user;
+    }
+
+    private void file(User owner, String status, Integer size) {
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.update("""
+                insert into file_items (owner_id, original_name, s3key, size, visibility, status, favorite,
+                                        created_at, updated_at, download_count, committed_bytes)
+                values (?, 'f', 'https://bucket.s3.amazonaws.com/k', ?, 'PRIVATE', ?, false, ?, ?, 0, 0)""",
+                owner.getId(), size, status, now, now);
+    }
+
+    private void assertQuota(User user, int usedFiles, long usedBytes, int reservedFiles, long reservedBytes) {
+        UserQuota q = userQuotaRepository.findByUserId(user.getId()).orElseThrow();
+        assertThat(q.getUsedFiles()).isEqualTo(usedFiles);
+        assertThat(q.getUsedBytes()).isEqualTo(usedBytes);
+        assertThat(q.getReservedFiles()).isEqualTo(reservedFiles);
+        assertThat(q.getReservedBytes()).isEqualTo(reservedBytes);
+    }
+}
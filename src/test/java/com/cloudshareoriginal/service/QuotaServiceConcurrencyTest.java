@@ -0,0 +1,217 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.model.UserQuota;
+import com.cloudshareoriginal.repository.FileItemRepository;
+import com.cloudshareoriginal.repository.UserQuotaRepository;
+import com.cloudshareoriginal.repository.UserRepository;
+import com.cloudshareoriginal.security.AuthenticatedUser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.server.ResponseStatusException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Stress test for quota reservation: 64 uploaders racing for a 10-file plan must end with exactly
+ * 10 stored files and a counter that says so, streams racing for the byte limit must be cut off
+ * before it is exceeded, and a user's first requests must not race each other into duplicate
+ * quota rows.
+ */
+@SpringBootTest(properties = {
+        "app.free.file-limit=" + QuotaServiceConcurrencyTest.LIMIT,
+        "app.free.byte-limit=" + QuotaServiceConcurrencyTest.BYTE_LIMIT,
+        "app.files.quota-grant-bytes=65536"
+})
+class QuotaServiceConcurrencyTest {
+
+    static final int LIMIT = 10;
+    static final long BYTE_LIMIT = 1_000_000;
+    private static final int UPLOADERS = 64;
+
+    @MockitoBean
+    private S3Client s3Client;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private QuotaService quotaService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserQuotaRepository userQuotaRepository;
+
+    @Autowired
+    private FileItemRepository fileItemRepository;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(UPLOADERS);
+    private User user;
+
+    @BeforeEach
+    void createUser() {
+        user = userRepository.save(User.builder()
+                .email("quota-race@example.com")
+                .password("x")
+                .emailVerified(true)
+                .build());
+    }
+
+    @AfterEach
+    void cleanUp() {
+        pool.shutdownNow();
+        fileItemRepository.deleteAll(fileItemRepository.findAll().stream()
+                .filter(f -> f.getOwner().getId().equals(user.getId())).toList());
+        userQuotaRepository.findByUserId(user.getId()).ifPresent(userQuotaRepository::delete);
+        userRepository.delete(user);
+    }
+
+    @Test
+    void parallelUploadsNeverOvershootTheLimit() throws Exception {
+        // A slow S3 keeps reservations in flight while the others are checked
+        when(s3Client.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(inv -> {
+            Thread.sleep(50);
+            return PutObjectResponse.builder().build();
+        });
+
+        List<Outcome> outcomes = race(UPLOADERS, i -> {
+            byte[] content = ("file " + i).getBytes(StandardCharsets.UTF_8);
+            return fileService.uploadFile(new MockMultipartFile("file", "f" + i + ".txt", "text/plain", content));
+        });
+
+        assertThat(outcomes.stream().filter(o -> o.value != null)).hasSize(LIMIT);
+        assertThat(outcomes.stream().filter(o -> o.error instanceof IllegalStateException)).hasSize(UPLOADERS - LIMIT);
+
+        UserQuota q = userQuotaRepository.findByUserId(user.getId()).orElseThrow();
+        assertThat(q.getUsedFiles()).isEqualTo(LIMIT);
+        assertThat(q.getReservedFiles()).isZero();
+        assertThat(q.getReservedBytes()).isZero();
+        assertThat(fileItemRepository.findAll().stream()
+                .filter(f -> f.getOwner().getId().equals(user.getId()) && f.getStatus() == FileItem.Status.READY))
+                .hasSize(LIMIT);
+    }
+
+    @Test
+    void streamsAreCutOffAtTheByteLimit() throws Exception {
+        when(s3Client.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenReturn(PutObjectResponse.builder().build());
+        int size = 150_000;
+
+        // As many streams as file slots, 1.5 MB against 1 MB. Sizes are not announced, so every
+        // byte is granted while the stream is read
+        List<Outcome> outcomes = race(LIMIT, i -> fileService.uploadStream("s" + i + ".bin", "application/octet-stream",
+                new ByteArrayInputStream(new byte[size])));
+
+        long stored = outcomes.stream().filter(o -> o.value != null).count();
+        assertThat(stored).isBetween(1L, BYTE_LIMIT / size);
+        assertThat(outcomes.stream().filter(o -> o.value == null))
+                .allSatisfy(o -> assertThat(o.error).isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE)));
+
+        UserQuota q = userQuotaRepository.findByUserId(user.getId()).orElseThrow();
+        assertThat(q.getUsedBytes()).isEqualTo(stored * size).isLessThanOrEqualTo(BYTE_LIMIT);
+        assertThat(q.getUsedFiles()).isEqualTo((int) stored);
+        assertThat(q.getReservedBytes()).isZero();
+        assertThat(q.getReservedFiles()).isZero();
+
+        // Deleting gives the bytes back
+        FileItem first = (FileItem) outcomes.stream().filter(o -> o.value != null).findFirst().orElseThrow().value;
+        signInAs(user);
+        fileService.delete(first.getId());
+        SecurityContextHolder.clearContext();
+        assertThat(quotaService.remainingBytes(user)).isEqualTo(BYTE_LIMIT - (stored - 1) * size);
+    }
+
+    @Test
+    void firstRequestsCreateOneRowAndReserveExactlyTheLimit() throws Exception {
+        assertThat(userQuotaRepository.findByUserId(user.getId())).isEmpty();
+
+        List<Outcome> outcomes = race(UPLOADERS, i -> quotaService.reserve(user, 1, 0));
+
+        assertThat(outcomes).allSatisfy(o -> assertThat(o.error).isNull());
+        assertThat(outcomes.stream().filter(o -> Boolean.TRUE.equals(o.value))).hasSize(LIMIT);
+        assertThat(userQuotaRepository.findAll().stream()
+                .filter(q -> q.getUser().getId().equals(user.getId()))).hasSize(1);
+
+        // Released slots can be taken again; committed ones cannot
+        quotaService.release(user, 4, 0);
+        quotaService.commit(user, LIMIT - 4, 0, 0);
+        assertThat(quotaService.remaining(user)).isEqualTo(4);
+        assertThat(quotaService.reserve(user, 5, 0)).isFalse();
+        assertThat(quotaService.reserve(user, 4, 0)).isTrue();
+        assertThat(quotaService.remaining(user)).isZero();
+    }
+
+    private List<Outcome> race(int racers, Task task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < racers; i++) {
+            int n = i;
+            Callable<Object> call = () -> {
+                signInAs(user);
+                try {
+                    start.await();
+                    return task.run(n);
+                } finally {
+                    SecurityContextHolder.clearContext();
+                }
+            };
+            futures.add(pool.submit(call));
+        }
+        start.countDown();
+
+        List<Outcome> outcomes = new ArrayList<>();
+        for (Future<Object> f : futures) {
+            try {
+                outcomes.add(new Outcome(f.get(30, TimeUnit.SECONDS), null));
+            } catch (ExecutionException e) {
+                outcomes.add(new Outcome(null, e.getCause()));
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+        return outcomes;
+    }
+
+    private static void signInAs(User user) {
+        AuthenticatedUser principal = AuthenticatedUser.of(user);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.authorities()));
+    }
+
+    private interface Task {
+        Object run(int i) throws Exception;
+    }
+
+    private record Outcome(Object value, Throwable error) {
+    }
+}
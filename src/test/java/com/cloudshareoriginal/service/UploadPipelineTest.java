@@ -0,0 +1,131 @@
+package com.cloudshareoriginal.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The pipeline decides what an upload is and how much of it may arrive before anything is stored,
+ * so its verdicts are checked here on plain byte arrays: where the size limit cuts in, which
+ * mismatches are refused, and which declared types a container format may legitimately carry.
+ */
+class UploadPipelineTest {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0x0D};
+    private static final byte[] ZIP = {'P', 'K', 0x03, 0x04, 0x14, 0, 0, 0};
+    private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0x10};
+
+    @Test
+    void uploadAtTheLimitIsReadInFull() throws IOException {
+        byte[] content = filled(2000);
+        UploadPipeline pipeline = UploadPipeline.from(new ByteArrayInputStream(content))
+                .limit(2000)
+                .digest(UploadPipeline.SHA_256)
+                .open();
+
+        assertThat(pipeline.readAllBytes()).isEqualTo(content);
+        assertThat(pipeline.bytesRead()).isEqualTo(2000);
+        assertThat(pipeline.hex(UploadPipeline.SHA_256)).isEqualTo(sha256(content));
+    }
+
+    @Test
+    void oversizeUploadFailsOnceItCrossesTheLimit() throws IOException {
+        UploadPipeline pipeline = UploadPipeline.from(new ByteArrayInputStream(filled(2001)))
+                .limit(2000)
+                .open();
+
+        assertThatThrownBy(pipeline::readAllBytes)
+                .isInstanceOfSatisfying(UploadRejectedException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE));
+    }
+
+    @Test
+    void oversizeFirstBlockIsRefusedBeforeAnythingIsHandedOut() {
+        assertThatThrownBy(() -> UploadPipeline.from(new ByteArrayInputStream(filled(100))).limit(10).open())
+                .isInstanceOfSatisfying(UploadRejectedException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE));
+    }
+
+    @Test
+    void declaredTypeTheBytesContradictIsRejected() {
+        assertThatThrownBy(() -> open(text("just some text"), "image/png"))
+                .isInstanceOfSatisfying(UploadRejectedException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.UNSUPPORTED_MEDIA_TYPE));
+    }
+
+    @Test
+    void requiredPrefixRejectsOtherContent() {
+        assertThatThrownBy(() -> UploadPipeline.from(new ByteArrayInputStream(ZIP))
+                .require("image/", "Only image files are allowed")
+                .open())
+                .isInstanceOfSatisfying(UploadRejectedException.class, e -> {
+                    assertThat(e.getStatus()).isEqualTo(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+                    assertThat(e.getMessage()).isEqualTo("Only image files are allowed");
+                });
+    }
+
+    @Test
+    void mislabelledContentTakesTheSniffedType() throws IOException {
+        assertThat(open(PNG, "text/plain").contentType()).isEqualTo("image/png");
+        assertThat(open(PNG, null).contentType()).isEqualTo("image/png");
+    }
+
+    @Test
+    void containersKeepTheirDeclaredType() throws IOException {
+        String docx = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+        assertThat(open(ZIP, docx).contentType()).isEqualTo(docx);
+        assertThat(open(ZIP, "application/java-archive").contentType()).isEqualTo("application/java-archive");
+        assertThat(open(JPEG, "image/jpg").contentType()).isEqualTo("image/jpg");
+        assertThat(open(ZIP, "image/png; charset=binary").contentType()).isEqualTo("application/zip");
+    }
+
+    @Test
+    void textStartingWithMzIsNotAnExecutable() throws IOException {
+        assertThat(open(text("MZ is where the notes begin"), "text/plain").contentType()).isEqualTo("text/plain");
+    }
+
+    @Test
+    void executableIsRecognisedByItsPeHeader() throws IOException {
+        byte[] exe = new byte[0x100];
+        exe[0] = 'M';
+        exe[1] = 'Z';
+        exe[0x3C] = (byte) 0x80; // e_lfanew
+        exe[0x80] = 'P';
+        exe[0x81] = 'E';
+
+        assertThat(open(exe, "text/plain").contentType()).isEqualTo("application/x-msdownload");
+    }
+
+    private static UploadPipeline open(byte[] content, String declaredType) throws IOException {
+        InputStream in = new ByteArrayInputStream(content);
+        return UploadPipeline.from(in).sniff(declaredType).open();
+    }
+
+    private static byte[] text(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] filled(int size) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) 'a');
+        return content;
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.cloudshareoriginal.service;
+
+import com.cloudshareoriginal.model.FileItem;
+import com.cloudshareoriginal.model.User;
+import com.cloudshareoriginal.model.UserQuota;
+import com.cloudshareoriginal.repository.FileItemRepository;
+import com.cloudshareoriginal.repository.UserQuotaRepository;
+import com.cloudshareoriginal.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Uploads the client never finished are removed once they expire: the row goes, the quota
+ * reservation comes back and the key is deleted or the multipart upload aborted. Uploads still within their time are left alone.
+ */
+@SpringBootTest(properties = {
+        "app.files.presign-put-ttl-seconds=60",
+        "app.files.upload-expiry-grace-ms=0",
+        "app.files.resumable-ttl-ms=600000",
+        "app.files.stream-upload-ttl-ms=600000",
+        "app.files.upload-sweep-initial-delay-ms=3600000"
+})
+class UploadSweeperTest {
+
+    @MockitoBean
+    private S3Client s3Client;
+
+    @Autowired
+    private UploadSweeper uploadSweeper;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FileItemRepository fileItemRepository;
+
+    @Autowired
+    private UserQuotaRepository userQuotaRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private User user;
+
+    @BeforeEach
+    void seed() {
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+        user = userRepository.save(User.builder().email("sweep@example.com").password("x").emailVerified(true).build());
+        jdbcTemplate.update("""
+                insert into user_quota (user_id, limit_files, used_files, reserved_files, limit_bytes, used_bytes,
+                                        reserved_bytes, subscription_status)
+                values (?, 5, 0, 2, 1000000, 0, 300, 'inactive')""", user.getId());
+    }
+
+    @AfterEach
+    void cleanUp() {
+        fileItemRepository.deleteAll(fileItemRepository.findAll().stream()
+                .filter(f -> f.getOwner().getId().equals(user.getId()))
+                .toList());
+        userQuotaRepository.findByUserId(user.getId()).ifPresent(userQuotaRepository::delete);
+        userRepository.delete(user);
+    }
+
+    @Test
+    void expiredPresignedUploadsAreRemovedAndReleased() {
+        FileItem stale = presigned("stale", 100L);
+        FileItem fresh = presigned("fresh", 200L);
+        jdbcTemplate.update("update file_items set updated_at = ? where id = ?",
+                Timestamp.from(Instant.now().minus(Duration.ofHours(1))), stale.getId());
+
+        assertThat(uploadSweeper.sweep()).isEqualTo(1);
+
+        assertThat(fileItemRepository.findById(stale.getId())).isEmpty();
+        assertThat(fileItemRepository.findById(fresh.getId())).isPresent();
+        UserQuota q = userQuotaRepository.findByUserId(user.getId()).orElseThrow();
+        assertThat(q.getReservedFiles()).isEqualTo(1);
+        assertThat(q.getReservedBytes()).isEqualTo(200L);
+
+        ArgumentCaptor<DeleteObjectsRequest> sent = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client).deleteObjects(sent.capture());
+        assertThat(sent.getValue().delete().objects()).extracting(ObjectIdentifier::key).containsExactly("sweep/stale");
+    }
+
+    @Test
+    void idleResumableUploadsAreAbortedAndReleased() {
+        FileItem idle = fileItemRepository.save(FileItem.builder()
+                .owner(user)
+                .originalName("idle.bin")
+                .s3Key("https://bucket.s3.amazonaws.com/sweep/idle")
+                .size(100L)
+                .status(FileItem.Status.UPLOADING)
+                .uploadToken("sweep-idle")
+                .multipartUploadId("mpu-idle")
+                .partSize(8388608)
+                .build());
+        FileItem fresh = presigned("fresh", 200L);
+        jdbcTemplate.update("update file_items set updated_at = ? where id = ?",
+                Timestamp.from(Instant.now().minus(Duration.ofHours(1))), idle.getId());
+
+        assertThat(uploadSweeper.sweep()).isEqualTo(1);
+
+        assertThat(fileItemRepository.findById(idle.getId())).isEmpty();
+        assertThat(fileItemRepository.findById(fresh.getId())).isPresent();
+        UserQuota q = userQuotaRepository.findByUserId(user.getId()).orElseThrow();
+        assertThat(q.getReservedFiles()).isEqualTo(1);
+        assertThat(q.getReservedBytes()).isEqualTo(200L);
+
+        ArgumentCaptor<AbortMultipartUploadRequest> sent = ArgumentCaptor.forClass(AbortMultipartUploadRequest.class);
+        verify(s3Client).abortMultipartUpload(sent.capture());
+        assertThat(sent.getValue().key()).isEqualTo("sweep/idle");
+        assertThat(sent.getValue().uploadId()).isEqualTo("mpu-idle");
+    }
+
+    @Test
+    void streamedUploadsLeftByADeadServerAreRemovedAndReleased() {
+        // Size is only known once the stream ends, so the row has none
+        FileItem orphan = fileItemRepository.save(FileItem.builder()
+                .owner(user)
+                .originalName("orphan.bin")
+                .s3Key("https://bucket.s3.amazonaws.com/sweep/orphan")
+                .status(FileItem.Status.UPLOADING)
+                .build());
+        FileItem fresh = presigned("fresh", 200L);
+        jdbcTemplate.update("update file_items set updated_at = ? where id = ?",
+                Timestamp.from(Instant.now().minus(Duration.ofHours(1))), orphan.getId());
+
+        assertThat(uploadSweeper.sweep()).isEqualTo(1);
+
+        assertThat(fileItemRepository.findById(orphan.getId())).isEmpty();
+        assertThat(fileItemRepository.findById(fresh.getId())).isPresent();
+        UserQuota q = userQuotaRepository.findByUserId(user.getId()).orElseThrow();
+        assertThat(q.getReservedFiles()).isEqualTo(1);
+
+        ArgumentCaptor<DeleteObjectsRequest> sent = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client).deleteObjects(sent.capture());
+        assertThat(sent.getValue().delete().objects()).extracting(ObjectIdentifier::key).containsExactly("sweep/orphan");
+    }
+
+    private FileItem presigned(String name, long size) {
+        return fileItemRepository.save(FileItem.builder()
+                .owner(user)
+                .originalName(name + ".bin")
+                .s3Key("https://bucket.s3.amazonaws.com/sweep/" + name)
+                .size(size)
+                .status(FileItem.Status.UPLOADING)
+                .uploadToken("sweep-" + name)
+                .build());
+    }
+}